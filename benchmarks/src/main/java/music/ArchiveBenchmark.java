@@ -0,0 +1,63 @@
+package music;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Opening a PlaylistArchive and reading one song from it, and reading a whole
+ * playlist back out of it, on the same synthetic playlist CreatePlaylistBenchmark
+ * parses from CSV.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public class ArchiveBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int size;
+
+    private File csv;
+    private File archive;
+
+    @Setup
+    public void writeArchive() throws IOException {
+        csv = File.createTempFile("playlist", ".csv");
+        archive = File.createTempFile("playlist", ".mlib");
+        Playlists.writeSyntheticPlaylist(csv.getPath(), size);
+        PlaylistArchive.convert(new String[] {csv.getPath()}, archive.getPath());
+    }
+
+    @TearDown
+    public void deleteArchive() {
+        csv.delete();
+        archive.delete();
+    }
+
+    @Benchmark
+    public Song openArchive() throws IOException {
+        PlaylistArchive opened = PlaylistArchive.open(archive.getPath());
+        return opened.getSong(0, opened.getSize(0) / 2);
+    }
+
+    @Benchmark
+    public Playlist getPlaylist() throws IOException {
+        return PlaylistArchive.open(archive.getPath()).getPlaylist(0);
+    }
+}
@@ -0,0 +1,62 @@
+package music;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * createPlaylist on a synthetic playlist file, through the default NIO
+ * PlaylistReader and through the Scanner + split(",") source it replaced.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public class CreatePlaylistBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int size;
+
+    private File csv;
+    private PlaylistLibrary reader;
+    private PlaylistLibrary scanner;
+
+    @Setup
+    public void writePlaylist() throws IOException {
+        csv = File.createTempFile("playlist", ".csv");
+        Playlists.writeSyntheticPlaylist(csv.getPath(), size);
+        reader = new PlaylistLibrary();
+        scanner = new PlaylistLibrary();
+        scanner.setPlaylistSource(new ScannerPlaylistSource());
+    }
+
+    @TearDown
+    public void deletePlaylist() {
+        csv.delete();
+    }
+
+    @Benchmark
+    public Playlist createPlaylist() {
+        return reader.createPlaylist(csv.getPath());
+    }
+
+    @Benchmark
+    public Playlist createPlaylistScanner() {
+        return scanner.createPlaylist(csv.getPath());
+    }
+}
@@ -0,0 +1,164 @@
+package music;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * insertSong and removeSong at random positions, EDITS calls per invocation,
+ * on a plain playlist and on its indexed variants (IndexedPlaylist for
+ * insertSong, SongIndex for removeSong, and both for insertSong and
+ * removeSong taking turns). The playlist is put back in its
+ * original order before every invocation, outside the measured time.
+ * Scores are per call.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public class EditBenchmark {
+    private static final int EDITS = 100;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int size;
+
+    private Playlist playlist;
+    private SongNode[] original;
+    private PlaylistLibrary library;
+    private IndexedPlaylist indexed;
+    private PlaylistLibrary indexedLibrary;
+    private Song inserted;
+    private int[] positions;      // insert position of every edit
+    private Song[] toRemove;      // song removed by every edit
+
+    @Setup(Level.Trial)
+    public void buildPlaylist() {
+        playlist = Playlists.syntheticPlaylist(size, 2023);
+        original = Playlists.nodesInOrder(playlist);
+        library = Playlists.libraryOf(playlist);
+        indexed = new IndexedPlaylist(playlist);
+        indexedLibrary = Playlists.libraryOf(indexed);
+        inserted = new Song("Inserted", "Artist", 2023, 50);
+
+        Random random = new Random(size);
+        positions = new int[EDITS];
+        toRemove = new Song[EDITS];
+        for (int i = 0; i < EDITS; i++) {
+            positions[i] = 1 + random.nextInt(size + i + 1);
+            toRemove[i] = original[random.nextInt(size)].getSong();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Plain {
+        @Setup(Level.Invocation)
+        public void reset(EditBenchmark benchmark) {
+            Playlists.relink(benchmark.playlist, benchmark.original);
+            benchmark.playlist.setSongIndex(null);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Indexed {
+        @Setup(Level.Invocation)
+        public void reset(EditBenchmark benchmark) {
+            Playlists.relink(benchmark.indexed, benchmark.original);
+            benchmark.indexed.setSongIndex(null);
+            benchmark.indexed.relinked();
+            benchmark.indexed.getNode(1); // rebuild the treap outside the measured time
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class IndexedWithSongIndex {
+        @Setup(Level.Invocation)
+        public void reset(EditBenchmark benchmark) {
+            Playlists.relink(benchmark.indexed, benchmark.original);
+            benchmark.indexed.relinked();
+            if (benchmark.indexed.getSongIndex() == null) {
+                benchmark.indexedLibrary.indexSongs(0);
+            } else {
+                benchmark.indexed.getSongIndex().rebuild(benchmark.indexed.getLast());
+            }
+            benchmark.indexed.getNode(1);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class WithSongIndex {
+        @Setup(Level.Invocation)
+        public void reset(EditBenchmark benchmark) {
+            Playlists.relink(benchmark.playlist, benchmark.original);
+            if (benchmark.playlist.getSongIndex() == null) {
+                benchmark.library.indexSongs(0);
+            } else {
+                benchmark.playlist.getSongIndex().rebuild(benchmark.playlist.getLast());
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public int insertSong(Plain reset) {
+        for (int position : positions) {
+            library.insertSong(0, position, inserted);
+        }
+        return playlist.getSize();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public int insertSongIndexed(Indexed reset) {
+        for (int position : positions) {
+            indexedLibrary.insertSong(0, position, inserted);
+        }
+        return indexed.getSize();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public int insertRemoveSongIndexed(IndexedWithSongIndex reset) {
+        int removed = 0;
+        for (int position : positions) {
+            indexedLibrary.insertSong(0, Math.min(position, indexed.getSize() + 1), inserted);
+            removed += indexedLibrary.removeSong(0, inserted) ? 1 : 0;
+        }
+        return removed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public int removeSong(Plain reset) {
+        int removed = 0;
+        for (Song song : toRemove) {
+            removed += library.removeSong(0, song) ? 1 : 0;
+        }
+        return removed;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EDITS)
+    public int removeSongIndexed(WithSongIndex reset) {
+        int removed = 0;
+        for (Song song : toRemove) {
+            removed += library.removeSong(0, song) ? 1 : 0;
+        }
+        return removed;
+    }
+}
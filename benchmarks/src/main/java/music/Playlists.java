@@ -0,0 +1,99 @@
+package music;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Helpers shared by the JMH benchmarks: synthetic playlists, in memory or as
+ * a playlist file, a library around them, and a way to put a playlist back in
+ * a known order between invocations of the operations that change it.
+ */
+
+final class Playlists {
+    private Playlists() {
+        // can not instantiate
+    }
+
+    /*
+     * Writes a playlist input file in the playlist*.csv format. Every 1000th
+     * line is missing its link so the invalid-line path gets exercised too.
+     */
+    static void writeSyntheticPlaylist(String filename, int songs) throws IOException {
+        try (BufferedWriter out = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+            for (int i = 0; i < songs; i++) {
+                out.write("Song Number ");
+                out.write(Integer.toString(i));
+                out.write(",Artist ");
+                out.write(Integer.toString(i % 5000));
+                out.write(',');
+                out.write(Integer.toString(2010 + i % 12));
+                out.write(',');
+                out.write(Integer.toString(i % 100));
+                if (i % 1000 != 999) {
+                    out.write(",Song");
+                    out.write(Integer.toString(i));
+                    out.write(".wav");
+                }
+                out.write('\n');
+            }
+        }
+    }
+
+    /*
+     * Builds a circular playlist of the given size in memory, with random
+     * popularities drawn from a fixed seed. Every song has its own name, but
+     * no link, to keep the heap small for very large playlists.
+     */
+    static Playlist syntheticPlaylist(int songs, long seed) {
+        Random random = new Random(seed);
+        SongNode first = null;
+        SongNode last = null;
+        for (int i = 0; i < songs; i++) {
+            Song song = new Song("Song " + i, "Artist", 2010 + i % 12, random.nextInt(100));
+            SongNode newNode = new SongNode(song, null);
+            if (first == null) {
+                first = newNode;
+                last = newNode;
+            } else {
+                last.setNext(newNode);
+                last = newNode;
+            }
+        }
+        if (last != null) {
+            last.setNext(first);
+        }
+        return new Playlist(last, songs);
+    }
+
+    // A library holding just the given playlists, from index 0
+    static PlaylistLibrary libraryOf(Playlist... playlists) {
+        PlaylistLibrary library = new PlaylistLibrary(new ArrayList<>());
+        for (Playlist playlist : playlists) {
+            library.getPlaylists().add(playlist);
+        }
+        return library;
+    }
+
+    // The nodes of a playlist, first to last
+    static SongNode[] nodesInOrder(Playlist playlist) {
+        SongNode[] nodes = new SongNode[playlist.getSize()];
+        SongNode ptr = playlist.getLast();
+        for (int i = 0; i < nodes.length; i++) {
+            ptr = ptr.getNext();
+            nodes[i] = ptr;
+        }
+        return nodes;
+    }
+
+    // Relinks the nodes into a circular playlist in the given order
+    static void relink(Playlist playlist, SongNode[] nodes) {
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i].setNext(nodes[(i + 1) % nodes.length]);
+        }
+        playlist.setLast(nodes[nodes.length - 1]);
+        playlist.setSize(nodes.length);
+    }
+}
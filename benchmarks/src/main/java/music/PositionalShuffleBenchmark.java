@@ -0,0 +1,46 @@
+package music;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The original positional shufflePlaylist, which walks to a random position
+ * for every song. It is O(n^2), so it only runs at the small sizes; compare
+ * with ReorderBenchmark.shufflePlaylist.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PositionalShuffleBenchmark {
+    @Param({"1000", "10000"})
+    int size;
+
+    private PlaylistLibrary library;
+
+    @Setup
+    public void buildPlaylist() {
+        library = Playlists.libraryOf(Playlists.syntheticPlaylist(size, 2023));
+        StdRandom.setSeed(2023);
+    }
+
+    @Benchmark
+    public Playlist shufflePlaylist() {
+        library.shufflePlaylist(0, false);
+        return library.getPlaylists().get(0);
+    }
+}
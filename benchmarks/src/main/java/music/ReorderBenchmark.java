@@ -0,0 +1,105 @@
+package music;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The operations that reorder a whole playlist: reversePlaylist,
+ * shufflePlaylist (Fisher-Yates), sortPlaylist, and mergePlaylists of two
+ * sorted halves. Sort and merge start from the same order on every
+ * invocation; reverse and shuffle work on whatever order the last call left.
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx3g"})
+public class ReorderBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    int size;
+
+    private Playlist playlist;
+    private SongNode[] original;
+    private PlaylistLibrary library;
+
+    private Playlist first;
+    private Playlist second;
+    private SongNode[] firstNodes;
+    private SongNode[] secondNodes;
+    private PlaylistLibrary mergeLibrary;
+
+    @Setup(Level.Trial)
+    public void buildPlaylists() {
+        playlist = Playlists.syntheticPlaylist(size, 2023);
+        original = Playlists.nodesInOrder(playlist);
+        library = Playlists.libraryOf(playlist);
+        StdRandom.setSeed(2023);
+
+        // two sorted halves, as mergePlaylists expects
+        first = Playlists.syntheticPlaylist(size / 2, 1);
+        second = Playlists.syntheticPlaylist(size - size / 2, 2);
+        mergeLibrary = Playlists.libraryOf(first, second);
+        mergeLibrary.sortPlaylist(0);
+        mergeLibrary.sortPlaylist(1);
+        firstNodes = Playlists.nodesInOrder(first);
+        secondNodes = Playlists.nodesInOrder(second);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Unsorted {
+        @Setup(Level.Invocation)
+        public void reset(ReorderBenchmark benchmark) {
+            Playlists.relink(benchmark.playlist, benchmark.original);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Halves {
+        @Setup(Level.Invocation)
+        public void reset(ReorderBenchmark benchmark) {
+            Playlists.relink(benchmark.first, benchmark.firstNodes);
+            Playlists.relink(benchmark.second, benchmark.secondNodes);
+            benchmark.mergeLibrary.getPlaylists().clear();
+            benchmark.mergeLibrary.getPlaylists().add(benchmark.first);
+            benchmark.mergeLibrary.getPlaylists().add(benchmark.second);
+        }
+    }
+
+    @Benchmark
+    public SongNode reversePlaylist() {
+        library.reversePlaylist(0);
+        return playlist.getLast();
+    }
+
+    @Benchmark
+    public Playlist shufflePlaylist() {
+        library.shufflePlaylist(0, true);
+        return library.getPlaylists().get(0);
+    }
+
+    @Benchmark
+    public SongNode sortPlaylist(Unsorted reset) {
+        library.sortPlaylist(0);
+        return playlist.getLast();
+    }
+
+    @Benchmark
+    public int mergePlaylists(Halves reset) {
+        mergeLibrary.mergePlaylists(0, 1);
+        return mergeLibrary.getPlaylists().get(0).getSize();
+    }
+}
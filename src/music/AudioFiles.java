@@ -0,0 +1,65 @@
+package music;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * This class opens audio files for StdAudio and the playback classes.
+ *
+ * It does not touch the sound card, so files can be opened and decoded even
+ * where StdAudio can not open its line.
+ */
+
+final class AudioFiles {
+
+    private AudioFiles() {
+        // can not instantiate
+    }
+
+    /*
+     * Returns an AudioInputStream for a file, looking for it in the local file
+     * system, next to the .class file, at the classloader root and finally as
+     * a URL, in that order.
+     */
+    static AudioInputStream open(String filename) {
+        if (filename == null) {
+            throw new IllegalArgumentException("filename is null");
+        }
+
+        try {
+            // first try to read file from local file system
+            File file = new File(filename);
+            if (file.exists()) {
+                return AudioSystem.getAudioInputStream(file);
+            }
+
+            // resource relative to .class file
+            InputStream is1 = StdAudio.class.getResourceAsStream(filename);
+            if (is1 != null) {
+                return AudioSystem.getAudioInputStream(is1);
+            }
+
+            // resource relative to classloader root
+            InputStream is2 = StdAudio.class.getClassLoader().getResourceAsStream(filename);
+            if (is2 != null) {
+                return AudioSystem.getAudioInputStream(is2);
+            }
+
+            // from URL (including jar file)
+            URL url = new URL(filename);
+            return AudioSystem.getAudioInputStream(url);
+        }
+        catch (IOException e) {
+            throw new IllegalArgumentException("could not read '" + filename + "'", e);
+        }
+        catch (UnsupportedAudioFileException e) {
+            throw new IllegalArgumentException("file of unsupported audio file format: '" + filename + "'", e);
+        }
+    }
+}
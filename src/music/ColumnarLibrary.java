@@ -0,0 +1,352 @@
+package music;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class stores a library of playlists in columns instead of as Song
+ * and SongNode objects.
+ *
+ * Every song is a record number. The details of record r are kept in
+ * parallel int arrays: years[r], popularities[r], linkYears[r] (the year
+ * whose directory holds the file, see Song.getLinkYear), next[r] (the record
+ * that plays after it, so each playlist is still a circular list) and ids
+ * into dictionaries of distinct song names, artists and links (-1 for null).
+ * A song costs seven ints plus its share of the dictionaries, instead of a
+ * Song, a SongNode and their strings, and walking a playlist reads adjacent
+ * array slots.
+ *
+ * The columns are a compact copy of a library, for storing and converting
+ * large libraries (PlaylistArchive writes from them), not a second way to
+ * edit one: PlaylistLibrary operations such as insertSong or sortPlaylist run
+ * on the Playlist objects that song(), toPlaylist() or toLibrary() create.
+ * Those songs keep their files under the library's SongDirectory.
+ */
+
+public class ColumnarLibrary {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // one entry per song record
+    private int[] nameIds       = new int[INITIAL_CAPACITY];
+    private int[] artistIds     = new int[INITIAL_CAPACITY];
+    private int[] linkIds       = new int[INITIAL_CAPACITY];
+    private int[] years         = new int[INITIAL_CAPACITY];
+    private int[] linkYears     = new int[INITIAL_CAPACITY];
+    private int[] popularities  = new int[INITIAL_CAPACITY];
+    private int[] next          = new int[INITIAL_CAPACITY];
+    private int   songCount;
+
+    // one entry per playlist: its last record (-1 if empty) and its size
+    private int[] lasts = new int[16];
+    private int[] sizes = new int[16];
+    private int   playlistCount;
+
+    private final Dictionary names   = new Dictionary();
+    private final Dictionary artists = new Dictionary();
+    private final Dictionary links   = new Dictionary();
+
+    private final SongDirectory directory; // root of the song files
+
+    /*
+     * Constructor for an empty library whose songs keep their files under
+     * directory.
+     */
+    public ColumnarLibrary(SongDirectory directory) {
+        this.directory = directory;
+    }
+
+    /*
+     * Default constructor, for songs under the default songs/ directory.
+     */
+    public ColumnarLibrary() {
+        this(SongDirectory.DEFAULT);
+    }
+
+    /*
+     * Copies every playlist of a PlaylistLibrary into a new columnar library
+     * with the same song directory.
+     */
+    public static ColumnarLibrary of(PlaylistLibrary library) {
+        ColumnarLibrary columns = new ColumnarLibrary(library.getSongDirectory());
+        if (library.getPlaylists() != null) {
+            for (Playlist playlist : library.getPlaylists()) {
+                columns.addPlaylist(playlist);
+            }
+        }
+        return columns;
+    }
+
+    /*
+     * Reads a playlist input file straight into the columns, without creating
+     * Song objects, and returns the index of the new playlist.
+     */
+    public int addPlaylist(String filename) {
+        int playlist = newPlaylist();
+        new PlaylistReader().readSongs(filename, (songName, artist, year, popularity, link) ->
+                append(playlist, songName, artist, year, popularity, link, year));
+        return playlist;
+    }
+
+    /*
+     * Copies the songs of a playlist into the columns and returns the index of
+     * the new playlist.
+     */
+    public int addPlaylist(Playlist source) {
+        int playlist = newPlaylist();
+        SongNode last = source.getLast();
+        if (last != null) {
+            SongNode ptr = last;
+            do {
+                ptr = ptr.getNext();
+                Song song = ptr.getSong();
+                append(playlist, song.getSongName(), song.getArtist(), song.getYear(), song.getPopularity(), song.getFileName(),
+                        song.getLinkYear());
+            } while (ptr != last);
+        }
+        return playlist;
+    }
+
+    /* Sizes */
+    public int getPlaylistCount() { return playlistCount; }
+    public int getSongCount() { return songCount; }
+    public int getSize(int playlist) { return sizes[checkPlaylist(playlist)]; }
+
+    /*
+     * Returns the record of the first song of a playlist, or -1 if it is empty.
+     */
+    public int getFirst(int playlist) {
+        int last = lasts[checkPlaylist(playlist)];
+        return last == -1 ? -1 : next[last];
+    }
+
+    /*
+     * Returns the record of the last song of a playlist, or -1 if it is empty.
+     */
+    public int getLast(int playlist) {
+        return lasts[checkPlaylist(playlist)];
+    }
+
+    /* Columns of one record */
+    public int getNext(int record) { return next[checkRecord(record)]; }
+    public int getYear(int record) { return years[checkRecord(record)]; }
+    public int getLinkYear(int record) { return linkYears[checkRecord(record)]; }
+    public int getPopularity(int record) { return popularities[checkRecord(record)]; }
+    public String getSongName(int record) { return names.get(nameIds[checkRecord(record)]); }
+    public String getArtist(int record) { return artists.get(artistIds[checkRecord(record)]); }
+
+    /*
+     * Returns the link file name of a record (without the songs/year/ directory),
+     * or null if the song has no link.
+     */
+    public String getLinkName(int record) {
+        return links.get(linkIds[checkRecord(record)]);
+    }
+
+    /*
+     * Returns the number of distinct song names, artists and links stored.
+     */
+    public int getDistinctNames() { return names.size(); }
+    public int getDistinctArtists() { return artists.size(); }
+    public int getDistinctLinks() { return links.size(); }
+
+    public SongDirectory getSongDirectory() { return directory; }
+
+    /*
+     * Creates a Song for a record.
+     */
+    public Song song(int record) {
+        checkRecord(record);
+        return new Song(names.get(nameIds[record]), artists.get(artistIds[record]), years[record], popularities[record],
+                links.get(linkIds[record]), linkYears[record], directory);
+    }
+
+    /*
+     * Creates a circular Playlist of SongNodes for one playlist.
+     */
+    public Playlist toPlaylist(int playlist) {
+        int lastRecord = getLast(playlist);
+        if (lastRecord == -1) {
+            return new Playlist();
+        }
+
+        SongNode first = null;
+        SongNode last = null;
+        int record = lastRecord;
+        do {
+            record = next[record];
+            SongNode newNode = new SongNode(song(record), null);
+            if (first == null) {
+                first = newNode;
+            } else {
+                last.setNext(newNode);
+            }
+            last = newNode;
+        } while (record != lastRecord);
+        last.setNext(first);
+
+        return new Playlist(last, sizes[playlist]);
+    }
+
+    /*
+     * Creates a PlaylistLibrary with a Playlist for every playlist in the columns.
+     */
+    public PlaylistLibrary toLibrary() {
+        // the songs already carry directory, so set it while the library is still empty
+        PlaylistLibrary library = new PlaylistLibrary(new ArrayList<>(playlistCount));
+        library.setSongDirectory(directory);
+        for (int i = 0; i < playlistCount; i++) {
+            library.getPlaylists().add(toPlaylist(i));
+        }
+        return library;
+    }
+
+    // Start a new empty playlist and return its index
+    private int newPlaylist() {
+        if (playlistCount == lasts.length) {
+            lasts = Arrays.copyOf(lasts, lasts.length * 2);
+            sizes = Arrays.copyOf(sizes, sizes.length * 2);
+        }
+        lasts[playlistCount] = -1;
+        sizes[playlistCount] = 0;
+        return playlistCount++;
+    }
+
+    // Add a song record to the end of a playlist
+    private void append(int playlist, String songName, String artist, int year, int popularity, String link, int linkYear) {
+        if (songCount == next.length) {
+            int capacity = next.length * 2;
+            nameIds = Arrays.copyOf(nameIds, capacity);
+            artistIds = Arrays.copyOf(artistIds, capacity);
+            linkIds = Arrays.copyOf(linkIds, capacity);
+            years = Arrays.copyOf(years, capacity);
+            linkYears = Arrays.copyOf(linkYears, capacity);
+            popularities = Arrays.copyOf(popularities, capacity);
+            next = Arrays.copyOf(next, capacity);
+        }
+
+        int record = songCount++;
+        nameIds[record] = names.id(songName);
+        artistIds[record] = artists.id(artist);
+        linkIds[record] = links.id(link);
+        years[record] = year;
+        linkYears[record] = linkYear;
+        popularities[record] = popularity;
+
+        int last = lasts[playlist];
+        if (last == -1) {
+            next[record] = record;
+        } else {
+            next[record] = next[last];
+            next[last] = record;
+        }
+        lasts[playlist] = record;
+        sizes[playlist]++;
+    }
+
+    private int checkPlaylist(int playlist) {
+        if (playlist < 0 || playlist >= playlistCount) {
+            throw new IndexOutOfBoundsException("Invalid playlist index " + playlist + ".");
+        }
+        return playlist;
+    }
+
+    private int checkRecord(int record) {
+        if (record < 0 || record >= songCount) {
+            throw new IndexOutOfBoundsException("Invalid song record " + record + ".");
+        }
+        return record;
+    }
+
+    /*
+     * Maps each distinct string to a small int id and back. The strings are
+     * kept as UTF-8 bytes in one shared array and found through an
+     * open-addressing hash table of ids, so a stored string costs its bytes
+     * plus a few ints instead of a String and a map entry. null has id -1.
+     * A string is decoded into a String the first time it is asked for, and
+     * that String is returned from then on.
+     */
+    private static class Dictionary {
+        private byte[] bytes   = new byte[4096]; // all strings back to back
+        private int    used;                    // bytes in use
+        private int[]  offsets = new int[65];   // string id starts at offsets[id], ends at offsets[id + 1]
+        private int    count;                   // number of strings
+        private int[]  table   = new int[128];  // id + 1 of each string at its hash slot, 0 when free
+        private String[] decoded = new String[64]; // decoded[id] once get(id) was called
+
+        int id(String value) {
+            if (value == null) {
+                return -1;
+            }
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            int mask = table.length - 1;
+            int slot = hash(encoded) & mask;
+            while (table[slot] != 0) {
+                int id = table[slot] - 1;
+                if (Arrays.equals(bytes, offsets[id], offsets[id + 1], encoded, 0, encoded.length)) {
+                    return id;
+                }
+                slot = (slot + 1) & mask;
+            }
+
+            // new string: append its bytes and claim the free slot
+            if (used + encoded.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, used + encoded.length));
+            }
+            System.arraycopy(encoded, 0, bytes, used, encoded.length);
+            used += encoded.length;
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                decoded = Arrays.copyOf(decoded, offsets.length - 1);
+            }
+            int id = count++;
+            offsets[id + 1] = used;
+            table[slot] = id + 1;
+            if (count * 2 > table.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        String get(int id) {
+            if (id == -1) {
+                return null;
+            }
+            String value = decoded[id];
+            if (value == null) {
+                value = new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+                decoded[id] = value;
+            }
+            return value;
+        }
+
+        int size() {
+            return count;
+        }
+
+        // Double the hash table and put every id back in
+        private void rehash() {
+            table = new int[table.length * 2];
+            int mask = table.length - 1;
+            for (int id = 0; id < count; id++) {
+                int slot = hash(bytes, offsets[id], offsets[id + 1]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = id + 1;
+            }
+        }
+
+        private static int hash(byte[] value) {
+            return hash(value, 0, value.length);
+        }
+
+        private static int hash(byte[] value, int from, int to) {
+            int h = 1;
+            for (int i = from; i < to; i++) {
+                h = 31 * h + value[i];
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
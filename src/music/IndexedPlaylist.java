@@ -0,0 +1,324 @@
+package music;
+
+import java.util.IdentityHashMap;
+import java.util.Random;
+
+/**
+ * This class represents a playlist that can find, insert and remove songs
+ * by position in O(log n).
+ *
+ * The songs are still kept in the circular linked list of SongNode objects,
+ * so everything that walks getLast().getNext() (printPlaylist, playPlaylist,
+ * reversePlaylist, ...) works unchanged. Next to the list, the nodes are kept
+ * in an implicit treap: a randomized binary search tree ordered by position,
+ * where every entry knows how many nodes are in its subtree.
+ *
+ * Songs inserted and removed through insert(), remove() and removeNode() keep
+ * the treap in sync. Code that relinks the nodes directly, like the reorders
+ * in PlaylistLibrary (reverse, shuffle, sort, merge), has to call relinked()
+ * afterwards; the treap is then rebuilt from the list, in O(n), the next time
+ * a position is looked up.
+ */
+
+public class IndexedPlaylist extends Playlist {
+    private Entry   root;   // treap of the nodes, in playlist order
+    private boolean stale;  // true if the list changed since the treap was built
+    private final IdentityHashMap<SongNode, Entry> entries = new IdentityHashMap<>(); // the entry of every node
+    private final Random priorities = new Random();
+
+    /*
+     * Constructor
+     */
+    public IndexedPlaylist(SongNode last, int size) {
+        super(last, size);
+        stale = true;
+    }
+
+    /*
+     * Creates an indexed playlist over the songs of an existing playlist.
+     * The nodes are shared, not copied.
+     */
+    public IndexedPlaylist(Playlist playlist) {
+        this(playlist.getLast(), playlist.getSize());
+        setSongIndex(playlist.getSongIndex());
+    }
+
+    /*
+     * Default constructor initializes the size to 0
+     */
+    public IndexedPlaylist() {
+        this(null, 0);
+    }
+
+    /*
+     * Returns the node at the given position, 1 being the first song.
+     */
+    public SongNode getNode(int position) {
+        ensureIndex();
+        checkPosition(position, getSize());
+        return find(position - 1).node;
+    }
+
+    /*
+     * Returns the song at the given position, 1 being the first song.
+     */
+    public Song getSong(int position) {
+        return getNode(position).getSong();
+    }
+
+    /*
+     * Returns the position of a node of this playlist, 1 being the first song,
+     * or -1 if the node is not in the playlist.
+     */
+    public int positionOf(SongNode node) {
+        ensureIndex();
+        Entry entry = entries.get(node);
+        if (entry == null) {
+            return -1;
+        }
+        int position = count(entry.left) + 1;
+        for (Entry child = entry; child.parent != null; child = child.parent) {
+            if (child.parent.right == child) {
+                position += count(child.parent.left) + 1;
+            }
+        }
+        return position;
+    }
+
+    /*
+     * Inserts the song at the given position (1 to size + 1).
+     * Returns false if the position is out of range.
+     */
+    public boolean insert(int position, Song song) {
+        ensureIndex();
+        int size = getSize();
+        if (position < 1 || position > size + 1) {
+            return false;
+        }
+
+        SongNode newNode = new SongNode(song, null);
+        SongNode last = getLast();
+        SongNode prev;
+        if (last == null) {
+            prev = newNode;
+            newNode.setNext(newNode);
+            super.setLast(newNode);
+        } else {
+            prev = position == 1 ? last : find(position - 2).node;
+            newNode.setNext(prev.getNext());
+            prev.setNext(newNode);
+            if (position == size + 1) {
+                super.setLast(newNode);
+            }
+        }
+        if (getSongIndex() != null) {
+            getSongIndex().linked(prev, newNode);
+        }
+
+        Entry entry = new Entry(newNode, priorities.nextInt());
+        entries.put(newNode, entry);
+        Entry[] parts = split(root, position - 1);
+        setRoot(merge(merge(parts[0], entry), parts[1]));
+        super.setSize(size + 1);
+        return true;
+    }
+
+    /*
+     * Removes and returns the song at the given position, 1 being the first song.
+     */
+    public Song remove(int position) {
+        return removeNode(position).getSong();
+    }
+
+    /*
+     * Unlinks and returns the node at the given position, 1 being the first song.
+     */
+    SongNode removeNode(int position) {
+        ensureIndex();
+        int size = getSize();
+        checkPosition(position, size);
+
+        SongNode last = getLast();
+        SongNode prev = position == 1 ? last : find(position - 2).node;
+        SongNode node = prev.getNext();
+        if (size == 1) {
+            super.setLast(null);
+        } else {
+            prev.setNext(node.getNext());
+            if (node == last) {
+                super.setLast(prev);
+            }
+        }
+        if (getSongIndex() != null) {
+            getSongIndex().unlinked(prev, node);
+        }
+        node.setNext(null);
+
+        entries.remove(node);
+        Entry[] front = split(root, position - 1);
+        Entry[] back = split(front[1], 1);
+        setRoot(merge(front[0], back[1]));
+        super.setSize(size - 1);
+        return node;
+    }
+
+    /*
+     * Marks the treap as out of date after the nodes were relinked outside of
+     * this class. It is rebuilt the next time a position is looked up.
+     */
+    public void relinked() {
+        stale = true;
+    }
+
+    private void setRoot(Entry entry) {
+        root = entry;
+        if (root != null) {
+            root.parent = null;
+        }
+    }
+
+    // Rebuild the treap from the circular list if it is out of date
+    private void ensureIndex() {
+        if (!stale) {
+            return;
+        }
+        stale = false;
+        root = null;
+        entries.clear();
+
+        SongNode last = getLast();
+        if (last == null) {
+            super.setSize(0);
+            return;
+        }
+
+        // Build the treap in one pass over the list: every new entry goes to the
+        // right end, so only the entries on the right spine can change.
+        Entry[] spine = new Entry[64];
+        int depth = 0;
+        int count = 0;
+        SongNode ptr = last;
+        do {
+            ptr = ptr.getNext();
+            count++;
+            Entry entry = new Entry(ptr, priorities.nextInt());
+            entries.put(ptr, entry);
+            Entry child = null;
+            while (depth > 0 && spine[depth - 1].priority < entry.priority) {
+                child = spine[--depth];
+                child.update();
+            }
+            entry.left = child;
+            if (depth > 0) {
+                spine[depth - 1].right = entry;
+            }
+            if (depth == spine.length) {
+                Entry[] deeper = new Entry[spine.length * 2];
+                System.arraycopy(spine, 0, deeper, 0, depth);
+                spine = deeper;
+            }
+            spine[depth++] = entry;
+        } while (ptr != last);
+
+        while (depth > 0) {
+            spine[--depth].update();
+        }
+        setRoot(spine[0]);
+        super.setSize(count);
+    }
+
+    // The entry at the given 0-based index
+    private Entry find(int index) {
+        Entry entry = root;
+        while (true) {
+            int leftCount = count(entry.left);
+            if (index < leftCount) {
+                entry = entry.left;
+            } else if (index == leftCount) {
+                return entry;
+            } else {
+                index -= leftCount + 1;
+                entry = entry.right;
+            }
+        }
+    }
+
+    // Split the treap into the first k entries and the rest
+    private static Entry[] split(Entry entry, int k) {
+        if (entry == null) {
+            return new Entry[] {null, null};
+        }
+        int leftCount = count(entry.left);
+        if (k <= leftCount) {
+            Entry[] parts = split(entry.left, k);
+            entry.left = parts[1];
+            entry.update();
+            parts[1] = entry;
+            return parts;
+        } else {
+            Entry[] parts = split(entry.right, k - leftCount - 1);
+            entry.right = parts[0];
+            entry.update();
+            parts[0] = entry;
+            return parts;
+        }
+    }
+
+    // Join two treaps, every entry of a coming before every entry of b
+    private static Entry merge(Entry a, Entry b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.update();
+            return a;
+        } else {
+            b.left = merge(a, b.left);
+            b.update();
+            return b;
+        }
+    }
+
+    private static int count(Entry entry) {
+        return entry == null ? 0 : entry.count;
+    }
+
+    private static void checkPosition(int position, int size) {
+        if (position < 1 || position > size) {
+            throw new IndexOutOfBoundsException("Position " + position + " is not between 1 and " + size + ".");
+        }
+    }
+
+    /*
+     * A treap entry: one node of the playlist plus the size of its subtree.
+     * update() also points the children back to their parent, so positionOf()
+     * can walk up from an entry.
+     */
+    private static class Entry {
+        private final SongNode node;
+        private final int      priority;
+        private int            count = 1;
+        private Entry          left;
+        private Entry          right;
+        private Entry          parent;
+
+        Entry(SongNode node, int priority) {
+            this.node = node;
+            this.priority = priority;
+        }
+
+        void update() {
+            count = 1 + IndexedPlaylist.count(left) + IndexedPlaylist.count(right);
+            if (left != null) {
+                left.parent = this;
+            }
+            if (right != null) {
+                right.parent = this;
+            }
+        }
+    }
+}
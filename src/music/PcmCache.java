@@ -0,0 +1,278 @@
+package music;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+/**
+ * This class keeps the decoded PCM audio of recently played and upcoming
+ * songs in memory, so a song is read and decoded from its file only once
+ * while it stays in the cache.
+ *
+ * The cache holds at most maxBytes bytes of audio. When it is full, the
+ * least recently used songs are dropped first; a song bigger than the whole
+ * cache is decoded but not kept.
+ *
+ * prefetch() walks SongNode.next from a node and decodes the next songs on a
+ * background thread, so they are ready before they are played. A get() for
+ * a song that is being prefetched waits for it instead of decoding it twice.
+ *
+ * The cache counts hits (the song was cached or being prefetched), misses
+ * (it had to be decoded on the spot) and evictions.
+ */
+
+public class PcmCache {
+    private final long maxBytes;
+    private final int  prefetchSongs;
+
+    // least recently used first
+    private final LinkedHashMap<String, Pcm> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final ConcurrentHashMap<String, CompletableFuture<Pcm>> loading = new ConcurrentHashMap<>();
+    private ExecutorService prefetcher;
+
+    private final AtomicLong hits       = new AtomicLong();
+    private final AtomicLong misses     = new AtomicLong();
+    private final AtomicLong evictions  = new AtomicLong();
+    private final AtomicLong prefetched = new AtomicLong();
+
+    /*
+     * Constructor for a cache of up to maxBytes bytes of audio that prefetches
+     * the next prefetchSongs songs.
+     */
+    public PcmCache(long maxBytes, int prefetchSongs) {
+        this.maxBytes = maxBytes;
+        this.prefetchSongs = prefetchSongs;
+    }
+
+    /*
+     * Returns the decoded audio of a file, from the cache if possible.
+     *
+     * @throws IllegalArgumentException if the file can not be read
+     */
+    public Pcm get(String filename) {
+        Pcm pcm;
+        synchronized (this) {
+            pcm = entries.get(filename);
+        }
+        if (pcm != null) {
+            hits.incrementAndGet();
+            return pcm;
+        }
+
+        CompletableFuture<Pcm> load = loading.get(filename);
+        if (load == null) {
+            // A prefetch may have finished between the two lookups; it puts the
+            // audio in entries before it leaves loading, so look there again.
+            synchronized (this) {
+                pcm = entries.get(filename);
+            }
+            if (pcm != null) {
+                hits.incrementAndGet();
+                return pcm;
+            }
+        }
+        else {
+            hits.incrementAndGet();
+            try {
+                return load.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalArgumentException("interrupted while reading '" + filename + "'", e);
+            } catch (ExecutionException e) {
+                // the prefetch failed; decode it here to report why
+            }
+        }
+
+        misses.incrementAndGet();
+        pcm = decode(filename);
+        put(filename, pcm);
+        return pcm;
+    }
+
+    /*
+     * Starts decoding, in the background, the songs of the prefetchSongs nodes
+     * after node that are not cached yet.
+     */
+    public void prefetch(SongNode node) {
+        SongNode ptr = node;
+        for (int i = 0; i < prefetchSongs && ptr != null; i++) {
+            ptr = ptr.getNext();
+            if (ptr == node) {
+                break; // went around the whole playlist
+            }
+            if (ptr.getSong().getPath() != null) {
+                prefetch(ptr.getSong().getPath().toString());
+            }
+        }
+    }
+
+    // Decode one file in the background unless it is cached or already loading.
+    // The checks and the submit happen under the lock, so clear() can not stop
+    // the prefetcher in between and a file is never queued twice.
+    private synchronized void prefetch(String filename) {
+        if (entries.containsKey(filename) || loading.containsKey(filename)) {
+            return;
+        }
+        if (prefetcher == null) {
+            prefetcher = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "pcm-prefetcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        CompletableFuture<Pcm> load = new CompletableFuture<>();
+        loading.put(filename, load);
+        prefetcher.execute(() -> {
+            try {
+                Pcm pcm = decode(filename);
+                put(filename, pcm);
+                prefetched.incrementAndGet();
+                load.complete(pcm);
+            } catch (RuntimeException e) {
+                load.completeExceptionally(e);
+            } finally {
+                loading.remove(filename, load);
+            }
+        });
+    }
+
+    /*
+     * Drops every cached song and stops the prefetcher. A get() waiting for a
+     * prefetch that will not run now decodes the song itself.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+            prefetcher = null;
+        }
+        for (CompletableFuture<Pcm> load : loading.values()) {
+            load.completeExceptionally(new IllegalStateException("cache cleared"));
+        }
+        loading.clear();
+    }
+
+    /* Metrics */
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+    public long getPrefetched() { return prefetched.get(); }
+    public long getMaxBytes() { return maxBytes; }
+    public synchronized long getBytes() { return bytes; }
+    public synchronized int getSize() { return entries.size(); }
+
+    /*
+     * Returns the hits divided by all lookups, or 0 before the first lookup.
+     */
+    public double getHitRate() {
+        long lookups = hits.get() + misses.get();
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d hits, %d misses (%.0f%% hit rate), %d prefetched, %d evicted, %d songs in %d of %d bytes",
+                getHits(), getMisses(), 100 * getHitRate(), getPrefetched(), getEvictions(), getSize(), getBytes(), maxBytes);
+    }
+
+    // Keep pcm, dropping the least recently used songs until it fits
+    private synchronized void put(String filename, Pcm pcm) {
+        if (pcm.length > maxBytes) {
+            return;
+        }
+        Pcm old = entries.put(filename, pcm);
+        if (old != null) {
+            bytes -= old.length;
+        }
+        bytes += pcm.length;
+
+        Iterator<Map.Entry<String, Pcm>> oldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && oldest.hasNext()) {
+            Map.Entry<String, Pcm> entry = oldest.next();
+            if (entry.getValue() == pcm) {
+                continue;
+            }
+            bytes -= entry.getValue().length;
+            oldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Read a whole file as 16-bit signed little endian PCM
+    private static Pcm decode(String filename) {
+        AudioInputStream in = AudioFiles.open(filename);
+        try {
+            AudioFormat format = in.getFormat();
+            if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleSizeInBits() != 16 || format.isBigEndian()) {
+                format = new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+                in = AudioSystem.getAudioInputStream(format, in);
+            }
+
+            byte[] data = new byte[1 << 20];
+            int length = 0;
+            int count;
+            while ((count = in.read(data, length, data.length - length)) != -1) {
+                length += count;
+                if (length == data.length) {
+                    byte[] bigger = new byte[data.length * 2];
+                    System.arraycopy(data, 0, bigger, 0, length);
+                    data = bigger;
+                }
+            }
+            if (data.length != length) {
+                data = Arrays.copyOf(data, length); // do not keep the growth slack in the cache
+            }
+            return new Pcm(format, data, length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read '" + filename + "'", e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // already read
+            }
+        }
+    }
+
+    /*
+     * The decoded audio of one file. The bytes must not be changed.
+     */
+    public static final class Pcm {
+        private final AudioFormat format;
+        private final byte[]      data;
+        private final int         length;
+
+        Pcm(AudioFormat format, byte[] data, int length) {
+            this.format = format;
+            this.data = data;
+            this.length = length;
+        }
+
+        public AudioFormat getFormat() { return format; }
+        public int getLength() { return length; }
+
+        /*
+         * Returns a new stream over the audio, without copying it.
+         */
+        public AudioInputStream stream() {
+            return new AudioInputStream(new ByteArrayInputStream(data, 0, length), format, length / format.getFrameSize());
+        }
+    }
+}
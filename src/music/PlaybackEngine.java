@@ -0,0 +1,341 @@
+package music;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * This class plays a playlist without gaps between the songs.
+ *
+ * StdAudio.play(String) opens a new line for every song and waits for it to
+ * drain before the next file is even opened. The engine instead keeps one
+ * line open for the whole playlist and uses two threads:
+ *   - a decoder, which walks the circular list of SongNodes and reads each
+ *     song into chunks of PCM bytes, converted to the format of the first
+ *     song, ahead of playback;
+ *   - a player, which writes the chunks to the line one after the other.
+ * The threads are connected by a bounded queue, so the decoder works on the
+ * next song while the current one plays, but never more than QUEUED_CHUNKS
+ * chunks ahead. The byte arrays of played chunks are handed back to the
+ * decoder, so a long playlist does not allocate a new buffer per chunk.
+ *
+ * With a PcmCache, the decoder takes each song from the cache and asks the
+ * cache to prefetch the songs after it, so songs that come around again
+ * (repeats, or a playlist played twice) are not decoded again.
+ *
+ * play() returns right away; await() waits for the end and stop() cuts the
+ * playback short. A Listener hears about every song on the player thread,
+ * when its first chunk goes to the line.
+ */
+
+public class PlaybackEngine {
+    private static final int CHUNK_BYTES = 1 << 16;   // bytes per decoded chunk
+    private static final int QUEUED_CHUNKS = 32;      // about 10s of CD audio decoded ahead
+
+    /*
+     * Receives the playback events, on the player thread.
+     */
+    public interface Listener {
+        void started(Song song);                  // first audio of the song is playing
+        void finished(Song song);                 // last audio of the song was written
+        void skipped(Song song, String reason);   // song has no link or could not be read
+    }
+
+    /*
+     * Where the player writes the audio. The default opens a SourceDataLine.
+     */
+    interface Output {
+        void open(AudioFormat format) throws LineUnavailableException;
+        void write(byte[] bytes, int length);
+        void drain();
+        void close();
+    }
+
+    private final Listener listener;
+    private final Output   output;
+    private final PcmCache cache; // may be null
+    private final BlockingQueue<Chunk>  queue   = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+    private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<>(QUEUED_CHUNKS + 2); // played chunks, for reuse
+    private volatile boolean stopped;
+    private Thread decoder;
+    private Thread player;
+
+    /*
+     * Constructor
+     */
+    public PlaybackEngine(Listener listener) {
+        this(listener, null);
+    }
+
+    /*
+     * Constructor for an engine that reads decoded songs through cache
+     */
+    public PlaybackEngine(Listener listener, PcmCache cache) {
+        this(listener, cache, new LineOutput());
+    }
+
+    PlaybackEngine(Listener listener, PcmCache cache, Output output) {
+        this.listener = listener;
+        this.cache = cache;
+        this.output = output;
+    }
+
+    /*
+     * Starts playing the playlist from its first song, and returns right away.
+     * Like playPlaylist, the playlist is played repeats times, and at least
+     * once.
+     */
+    public synchronized void play(Playlist playlist, int repeats) {
+        if (decoder != null) {
+            throw new IllegalStateException("play() can only be called once per engine");
+        }
+        SongNode last = playlist.getLast();
+        decoder = new Thread(() -> decode(last, repeats), "playback-decoder");
+        player = new Thread(this::playChunks, "playback-player");
+        decoder.setDaemon(true);
+        player.setDaemon(true);
+        decoder.start();
+        player.start();
+    }
+
+    /*
+     * Waits until the playlist has finished playing or was stopped.
+     */
+    public void await() throws InterruptedException {
+        Thread playing;
+        synchronized (this) {
+            playing = player;
+        }
+        if (playing != null) {
+            playing.join();
+        }
+    }
+
+    /*
+     * Stops playback as soon as possible. Audio already sent to the line is dropped.
+     */
+    public void stop() {
+        stopped = true;
+        synchronized (this) {
+            if (decoder != null) {
+                decoder.interrupt();
+                player.interrupt();
+            }
+        }
+    }
+
+    /*
+     * Returns true while the playlist is playing.
+     */
+    public synchronized boolean isPlaying() {
+        return player != null && player.isAlive();
+    }
+
+    // Decoder thread: turn every song of every pass into chunks
+    private void decode(SongNode last, int repeats) {
+        AudioFormat format = null; // format of the line, taken from the first song
+        boolean done = false;
+        try {
+            if (last != null) {
+                int passes = Math.max(repeats, 1);
+                for (int pass = 0; pass < passes && !stopped; pass++) {
+                    SongNode ptr = last;
+                    do {
+                        ptr = ptr.getNext();
+                        if (cache != null) {
+                            cache.prefetch(ptr);
+                        }
+                        format = decodeSong(ptr.getSong(), format);
+                    } while (ptr != last && !stopped);
+                }
+            }
+            queue.put(Chunk.END_OF_PLAYLIST);
+            done = true;
+        } catch (InterruptedException e) {
+            // stopped
+        } finally {
+            if (!done) {
+                // stopped or failed: drop what is queued so the player wakes up right away
+                queue.clear();
+                queue.offer(Chunk.END_OF_PLAYLIST);
+            }
+        }
+    }
+
+    // Queue the chunks of one song and return the format of the line
+    private AudioFormat decodeSong(Song song, AudioFormat format) throws InterruptedException {
+        if (song.getPath() == null) {
+            queue.put(new Chunk(song, "has no link to a song"));
+            return format;
+        }
+
+        AudioInputStream in = null;
+        try {
+            String filename = song.getPath().toString();
+            in = cache == null ? AudioFiles.open(filename) : cache.get(filename).stream();
+            if (format == null) {
+                format = pcmFormat(in.getFormat());
+            }
+            if (!in.getFormat().matches(format)) {
+                in = AudioSystem.getAudioInputStream(format, in);
+            }
+
+            // fill whole frames only; AudioInputStream never reads part of a frame
+            int usable = CHUNK_BYTES - CHUNK_BYTES % format.getFrameSize();
+            boolean first = true;
+            byte[] bytes = buffer();
+            int length = 0;
+            int count;
+            while (!stopped && (count = in.read(bytes, length, usable - length)) != -1) {
+                length += count;
+                if (length == usable) {
+                    queue.put(new Chunk(song, format, bytes, length, first, false));
+                    first = false;
+                    bytes = buffer();
+                    length = 0;
+                }
+            }
+            queue.put(new Chunk(song, format, bytes, length, first, true));
+        } catch (IllegalArgumentException | IOException e) {
+            queue.put(new Chunk(song, "could not be read (" + e.getMessage() + ")"));
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing left to read anyway
+                }
+            }
+        }
+        return format;
+    }
+
+    // A chunk buffer, reused if the player has handed one back
+    private byte[] buffer() {
+        byte[] bytes = buffers.poll();
+        return bytes != null ? bytes : new byte[CHUNK_BYTES];
+    }
+
+    // Player thread: write the chunks to one line in order
+    private void playChunks() {
+        AudioFormat lineFormat = null;
+        try {
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk == Chunk.END_OF_PLAYLIST || stopped) {
+                    break;
+                }
+                if (chunk.reason != null) {
+                    listener.skipped(chunk.song, chunk.reason);
+                    continue;
+                }
+                if (lineFormat == null) {
+                    lineFormat = chunk.format;
+                    output.open(lineFormat);
+                }
+                if (chunk.first) {
+                    listener.started(chunk.song);
+                }
+                output.write(chunk.bytes, chunk.length);
+                buffers.offer(chunk.bytes);
+                if (chunk.last) {
+                    listener.finished(chunk.song);
+                }
+            }
+            if (lineFormat != null && !stopped) {
+                output.drain();
+            }
+        } catch (InterruptedException e) {
+            // stopped
+        } catch (LineUnavailableException e) {
+            System.err.println("Could not open an audio line: " + e.getMessage());
+            stopped = true;
+            decoder.interrupt();
+        } finally {
+            if (lineFormat != null) {
+                output.close();
+            }
+        }
+    }
+
+    // 16-bit signed little endian PCM with the rate and channels of format
+    private static AudioFormat pcmFormat(AudioFormat format) {
+        if (format.getEncoding() == AudioFormat.Encoding.PCM_SIGNED && format.getSampleSizeInBits() == 16 && !format.isBigEndian()) {
+            return format;
+        }
+        return new AudioFormat(format.getSampleRate(), 16, format.getChannels(), true, false);
+    }
+
+    /*
+     * A piece of decoded audio, a skipped song, or the end of the playlist.
+     */
+    private static class Chunk {
+        static final Chunk END_OF_PLAYLIST = new Chunk(null, null);
+
+        final Song        song;
+        final AudioFormat format;
+        final byte[]      bytes;
+        final int         length;
+        final boolean     first;   // first chunk of the song
+        final boolean     last;    // last chunk of the song
+        final String      reason;  // why the song is skipped, or null
+
+        Chunk(Song song, AudioFormat format, byte[] bytes, int length, boolean first, boolean last) {
+            this.song = song;
+            this.format = format;
+            this.bytes = bytes;
+            this.length = length;
+            this.first = first;
+            this.last = last;
+            this.reason = null;
+        }
+
+        Chunk(Song song, String reason) {
+            this.song = song;
+            this.format = null;
+            this.bytes = null;
+            this.length = 0;
+            this.first = false;
+            this.last = false;
+            this.reason = reason;
+        }
+    }
+
+    /*
+     * Plays to a SourceDataLine that stays open for the whole playlist.
+     */
+    private static class LineOutput implements Output {
+        private SourceDataLine line;
+
+        @Override
+        public void open(AudioFormat format) throws LineUnavailableException {
+            line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, format));
+            line.open(format);
+            line.start();
+        }
+
+        @Override
+        public void write(byte[] bytes, int length) {
+            line.write(bytes, 0, length);
+        }
+
+        @Override
+        public void drain() {
+            line.drain();
+        }
+
+        @Override
+        public void close() {
+            line.stop();
+            line.flush();
+            line.close();
+        }
+    }
+}
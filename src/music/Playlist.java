@@ -12,6 +12,7 @@ package music;
 public class Playlist {
     private SongNode last; // reference to the last node in the Circular Linked List
     private int      size; // the number of SongNodes (songs) in the list
+    private SongIndex songIndex; // optional hash index of the songs, null when not in use
 
     /*
      * Constructor
@@ -34,4 +35,7 @@ public class Playlist {
 
     public int getSize() {return size;}
     public void setSize(int size) {this.size = size;}
+
+    public SongIndex getSongIndex() {return songIndex;}
+    public void setSongIndex(SongIndex songIndex) {this.songIndex = songIndex;}
 }
@@ -0,0 +1,324 @@
+package music;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This class is a library of playlists stored in a binary file that is
+ * memory-mapped instead of parsed, so opening it takes the same time no
+ * matter how many songs it holds.
+ *
+ * The file is laid out as
+ *   header          magic, version and the playlist, song and string counts
+ *   playlist table  for each playlist: its first record and its size
+ *   records         for each song, 6 ints: name, artist, year, popularity,
+ *                   link and link year (Song.getLinkYear)
+ *   string offsets  stringCount + 1 ints into the string data
+ *   string data     every distinct string once, as UTF-8
+ * Names, artists and links are string ids (-1 for null). The records of a
+ * playlist are stored back to back in playlist order, so song i of playlist
+ * p is record first[p] + i.
+ *
+ * open() maps the file and reads the header only. A Song is created when it
+ * is asked for with getSong(), getPlaylist() or toLibrary(). Playlist CSV
+ * files are converted with convert(), or from the console with
+ *   java music.PlaylistArchive library.mlib playlist1.csv playlist2.csv ...
+ *
+ * Record and string positions are int offsets into one mapping, so write()
+ * refuses a library whose archive would be over 2GB.
+ */
+
+public class PlaylistArchive {
+    private static final int MAGIC = 0x4D4C4942;    // "MLIB"
+    private static final int VERSION = 2;           // 2 added the link year
+    private static final int HEADER_BYTES = 32;
+    private static final int PLAYLIST_BYTES = 8;    // first record, size
+    private static final int RECORD_BYTES = 24;     // name, artist, year, popularity, link, link year
+    private static final int BUFFER_SIZE = 1 << 20;  // 1MB write window
+    private static final int NAME = 0, ARTIST = 4, YEAR = 8, POPULARITY = 12, LINK = 16, LINK_YEAR = 20;
+
+    private final MappedByteBuffer buffer;
+    private final SongDirectory    directory;
+    private final int playlistCount;
+    private final int songCount;
+    private final int stringCount;
+    private final int playlistsAt;
+    private final int recordsAt;
+    private final int offsetsAt;
+    private final int stringsAt;
+    private final String[] strings;     // decoded strings by id, filled on first use
+
+    private PlaylistArchive(MappedByteBuffer buffer, SongDirectory directory) throws IOException {
+        this.buffer = buffer;
+        this.directory = directory;
+        if (buffer.capacity() < HEADER_BYTES || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a playlist archive.");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported playlist archive version " + buffer.getInt(4) + ".");
+        }
+        playlistCount = buffer.getInt(8);
+        songCount = buffer.getInt(12);
+        stringCount = buffer.getInt(16);
+        long strings = HEADER_BYTES + (long) playlistCount * PLAYLIST_BYTES + (long) songCount * RECORD_BYTES
+                + (stringCount + 1L) * 4;
+        if (playlistCount < 0 || songCount < 0 || stringCount < 0 || strings > buffer.capacity()) {
+            throw new IOException("Playlist archive is truncated.");
+        }
+        playlistsAt = HEADER_BYTES;
+        recordsAt = playlistsAt + playlistCount * PLAYLIST_BYTES;
+        offsetsAt = recordsAt + songCount * RECORD_BYTES;
+        stringsAt = (int) strings;
+        this.strings = new String[stringCount];
+        if (stringsAt + buffer.getInt(offsetsAt + stringCount * 4) != buffer.capacity()) {
+            throw new IOException("Playlist archive is truncated.");
+        }
+    }
+
+    /*
+     * Maps an archive file. Songs read from it keep their files under the
+     * default songs/ directory.
+     */
+    public static PlaylistArchive open(String filename) throws IOException {
+        return open(filename, SongDirectory.DEFAULT);
+    }
+
+    /*
+     * Maps an archive file. Songs read from it keep their files under directory.
+     */
+    public static PlaylistArchive open(String filename, SongDirectory directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(filename + " is larger than 2GB.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            return new PlaylistArchive(buffer, directory);
+        }
+    }
+
+    /*
+     * Reads playlist CSV files and writes them into one archive, one playlist
+     * per file. No Song objects are created on the way.
+     */
+    public static void convert(String[] csvFiles, String archive) throws IOException {
+        ColumnarLibrary columns = new ColumnarLibrary();
+        for (String csv : csvFiles) {
+            columns.addPlaylist(csv);
+        }
+        write(columns, archive);
+    }
+
+    /*
+     * Writes every playlist of a library into an archive.
+     */
+    public static void write(PlaylistLibrary library, String archive) throws IOException {
+        write(ColumnarLibrary.of(library), archive);
+    }
+
+    /*
+     * Writes every playlist of a columnar library into an archive.
+     */
+    public static void write(ColumnarLibrary columns, String archive) throws IOException {
+        int playlists = columns.getPlaylistCount();
+        int songs = columns.getSongCount();
+        if ((long) songs * RECORD_BYTES > Integer.MAX_VALUE) {
+            throw new IOException("Library is too large for a playlist archive.");
+        }
+
+        // give every distinct string an id and lay the strings out back to back
+        HashMap<String, Integer> ids = new HashMap<>(songs * 2);
+        ArrayList<byte[]> strings = new ArrayList<>();
+        int[] records = new int[songs * (RECORD_BYTES / 4)];
+        int r = 0;
+        for (int p = 0; p < playlists; p++) {
+            int record = columns.getFirst(p);
+            for (int i = 0; i < columns.getSize(p); i++) {
+                records[r++] = stringId(columns.getSongName(record), ids, strings);
+                records[r++] = stringId(columns.getArtist(record), ids, strings);
+                records[r++] = columns.getYear(record);
+                records[r++] = columns.getPopularity(record);
+                records[r++] = stringId(columns.getLinkName(record), ids, strings);
+                records[r++] = columns.getLinkYear(record);
+                record = columns.getNext(record);
+            }
+        }
+
+        long stringBytes = 0;
+        for (byte[] string : strings) {
+            stringBytes += string.length;
+        }
+        long total = HEADER_BYTES + (long) playlists * PLAYLIST_BYTES + (long) songs * RECORD_BYTES
+                + (strings.size() + 1L) * 4 + stringBytes;
+        if (total > Integer.MAX_VALUE) {
+            throw new IOException("Library is too large for a playlist archive.");
+        }
+
+        try (FileChannel channel = FileChannel.open(Paths.get(archive), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+            out.putInt(MAGIC).putInt(VERSION).putInt(playlists).putInt(songs).putInt(strings.size());
+            out.position(HEADER_BYTES);
+
+            int first = 0;
+            for (int p = 0; p < playlists; p++) {
+                out = room(channel, out, PLAYLIST_BYTES);
+                out.putInt(first).putInt(columns.getSize(p));
+                first += columns.getSize(p);
+            }
+            for (int value : records) {
+                out = room(channel, out, 4);
+                out.putInt(value);
+            }
+            int offset = 0;
+            out = room(channel, out, 4);
+            out.putInt(offset);
+            for (byte[] string : strings) {
+                offset += string.length;
+                out = room(channel, out, 4);
+                out.putInt(offset);
+            }
+            for (byte[] string : strings) {
+                out = room(channel, out, string.length);
+                out.put(string);
+            }
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    // Make room for bytes more bytes in out, writing it to the channel when it is full
+    private static ByteBuffer room(FileChannel channel, ByteBuffer out, int bytes) throws IOException {
+        if (out.remaining() >= bytes) {
+            return out;
+        }
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+        return out.capacity() >= bytes ? out : ByteBuffer.allocate(bytes);
+    }
+
+    /* Sizes */
+    public int getPlaylistCount() { return playlistCount; }
+    public int getSongCount() { return songCount; }
+    public int getSize(int playlist) { return buffer.getInt(playlistAt(playlist) + 4); }
+
+    /*
+     * Creates the Song at the given index (0 being the first song) of a playlist.
+     */
+    public Song getSong(int playlist, int index) {
+        if (index < 0 || index >= getSize(playlist)) {
+            throw new IndexOutOfBoundsException("Invalid song index " + index + ".");
+        }
+        return song(buffer.getInt(playlistAt(playlist)) + index);
+    }
+
+    /*
+     * Creates a circular Playlist of SongNodes for one playlist.
+     */
+    public Playlist getPlaylist(int playlist) {
+        int first = buffer.getInt(playlistAt(playlist));
+        int size = getSize(playlist);
+        if (size == 0) {
+            return new Playlist();
+        }
+
+        SongNode head = new SongNode(song(first), null);
+        SongNode last = head;
+        for (int i = 1; i < size; i++) {
+            SongNode newNode = new SongNode(song(first + i), null);
+            last.setNext(newNode);
+            last = newNode;
+        }
+        last.setNext(head);
+        return new Playlist(last, size);
+    }
+
+    /*
+     * Creates a PlaylistLibrary with every playlist of the archive.
+     */
+    public PlaylistLibrary toLibrary() {
+        // the songs already carry directory, so set it while the library is still empty
+        PlaylistLibrary library = new PlaylistLibrary(new ArrayList<>(playlistCount));
+        library.setSongDirectory(directory);
+        for (int p = 0; p < playlistCount; p++) {
+            library.getPlaylists().add(getPlaylist(p));
+        }
+        return library;
+    }
+
+    // Decode one record into a new Song
+    private Song song(int record) {
+        int at = recordsAt + record * RECORD_BYTES;
+        return new Song(string(buffer.getInt(at + NAME)), string(buffer.getInt(at + ARTIST)),
+                buffer.getInt(at + YEAR), buffer.getInt(at + POPULARITY), string(buffer.getInt(at + LINK)),
+                buffer.getInt(at + LINK_YEAR), directory);
+    }
+
+    // Decode one string of the string table, -1 being null. Every song that
+    // uses the same id gets the same String object.
+    private String string(int id) {
+        if (id == -1) {
+            return null;
+        }
+        String decoded = strings[id];
+        if (decoded != null) {
+            return decoded;
+        }
+        int from = buffer.getInt(offsetsAt + id * 4);
+        int to = buffer.getInt(offsetsAt + id * 4 + 4);
+        byte[] bytes = new byte[to - from];
+        buffer.get(stringsAt + from, bytes);
+        decoded = new String(bytes, StandardCharsets.UTF_8);
+        strings[id] = decoded;
+        return decoded;
+    }
+
+    private int playlistAt(int playlist) {
+        if (playlist < 0 || playlist >= playlistCount) {
+            throw new IndexOutOfBoundsException("Invalid playlist index " + playlist + ".");
+        }
+        return playlistsAt + playlist * PLAYLIST_BYTES;
+    }
+
+    // The id of a string, adding it to the table the first time it is seen
+    private static int stringId(String value, HashMap<String, Integer> ids, ArrayList<byte[]> strings) {
+        if (value == null) {
+            return -1;
+        }
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = strings.size();
+            ids.put(value, id);
+            strings.add(value.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    /*
+     * Converts playlist CSV files into an archive:
+     *   java music.PlaylistArchive library.mlib playlist1.csv playlist2.csv ...
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            StdOut.println("Usage: java music.PlaylistArchive archive csvFile...");
+            return;
+        }
+        convert(Arrays.copyOfRange(args, 1, args.length), args[0]);
+        PlaylistArchive archive = open(args[0]);
+        StdOut.println("Wrote " + archive.getSongCount() + " song(s) in " + archive.getPlaylistCount() + " playlist(s) to " + args[0]);
+    }
+}
@@ -0,0 +1,544 @@
+package music;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * This class is a write-ahead log of the changes made to a PlaylistLibrary,
+ * so the library survives a restart without re-importing the CSV files.
+ *
+ * The journal keeps two files per generation in its directory: a snapshot of
+ * the whole library (a PlaylistArchive, snapshot-N.mlib) and the log of every
+ * change made since (journal-N.log). Every entry of the log is framed by its
+ * length and a CRC32, so a torn write at the end is recognized and dropped.
+ *
+ * Changes are buffered and written with one fsync per group (group commit):
+ * when groupSize entries are waiting, or when commit() or close() is called.
+ * Changes made after the last commit are lost if the process dies.
+ *
+ * Once the log grows past compactBytes, the library is written as the
+ * snapshot of the next generation and the old files are deleted (compaction),
+ * so recovery only replays the changes made since the last snapshot. The new
+ * snapshot is renamed into place before the old generation is removed, so a
+ * crash during compaction leaves either generation complete.
+ *
+ * Shuffles are logged as the order they produced, not as a random seed, so
+ * replaying them gives the same playlist whatever the state of StdRandom.
+ */
+
+public class PlaylistJournal {
+    private static final int GROUP_SIZE = 64;                // entries per group commit
+    private static final long COMPACT_BYTES = 16L << 20;     // log size that triggers compaction
+
+    // entry types
+    private static final byte ADD_PLAYLIST = 1;
+    private static final byte REMOVE_PLAYLIST = 2;
+    private static final byte INSERT_SONG = 3;
+    private static final byte REMOVE_SONG = 4;
+    private static final byte INSERT_SONGS = 5;
+    private static final byte REMOVE_SONGS = 6;
+    private static final byte REVERSE = 7;
+    private static final byte MERGE = 8;
+    private static final byte SHUFFLE = 9;
+    private static final byte SORT = 10;
+
+    private final Path            directory;
+    private final PlaylistLibrary library;
+    private long                  generation;
+    private FileChannel           log;
+
+    private final ByteArrayOutputStream group = new ByteArrayOutputStream(); // framed entries not written yet
+    private final ByteArrayOutputStream entry = new ByteArrayOutputStream(); // entry being logged
+    private final DataOutputStream      out   = new DataOutputStream(entry);
+    private final CRC32                 crc   = new CRC32();
+    private int  pending;      // entries in group
+    private int  groupSize = GROUP_SIZE;
+    private long compactBytes = COMPACT_BYTES;
+
+    private PlaylistJournal(Path directory, PlaylistLibrary library) {
+        this.directory = directory;
+        this.library = library;
+    }
+
+    /*
+     * Opens the journal in directory for library.
+     *
+     * If the directory holds a snapshot, the playlists of library are replaced
+     * by the snapshot and the changes logged after it are replayed. Otherwise
+     * the current playlists of library become the first snapshot. From then on
+     * every change made to library is logged.
+     */
+    public static PlaylistJournal open(String directory, PlaylistLibrary library) throws IOException {
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        PlaylistJournal journal = new PlaylistJournal(dir, library);
+
+        long generation = latestGeneration(dir);
+        library.setJournal(null);
+        if (generation < 0) {
+            journal.snapshot(0);
+        } else {
+            journal.generation = generation;
+            PlaylistArchive snapshot = PlaylistArchive.open(journal.snapshotPath(generation).toString(), library.getSongDirectory());
+            library.setPlaylists(snapshot.toLibrary().getPlaylists());
+            journal.replay();
+        }
+        journal.deleteOlderGenerations();
+        journal.openLog();
+        library.setJournal(journal);
+        return journal;
+    }
+
+    /*
+     * Writes every buffered change to the log and waits for it to reach the disk.
+     */
+    public void commit() throws IOException {
+        if (pending == 0) {
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(group.toByteArray());
+        while (bytes.hasRemaining()) {
+            log.write(bytes);
+        }
+        log.force(false);
+        group.reset();
+        pending = 0;
+
+        if (log.size() >= compactBytes) {
+            compact();
+        }
+    }
+
+    /*
+     * Writes the library as a new snapshot and starts an empty log.
+     */
+    public void compact() throws IOException {
+        // the snapshot holds every change, logged or still buffered
+        group.reset();
+        pending = 0;
+
+        long next = generation + 1;
+        snapshot(next);
+        log.close();
+        long old = generation;
+        generation = next;
+        openLog();
+        Files.deleteIfExists(logPath(old));
+        Files.deleteIfExists(snapshotPath(old));
+    }
+
+    /*
+     * Commits the buffered changes, closes the log and stops logging changes
+     * to the library.
+     */
+    public void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            log.close();
+            if (library.getJournal() == this) {
+                library.setJournal(null);
+            }
+        }
+    }
+
+    /* Tuning */
+    public int getGroupSize() { return groupSize; }
+    public void setGroupSize(int entries) { groupSize = Math.max(1, entries); }
+
+    public long getCompactBytes() { return compactBytes; }
+    public void setCompactBytes(long bytes) { compactBytes = bytes; }
+
+    public long getGeneration() { return generation; }
+    public int getPending() { return pending; }
+
+    /*
+     * Called by PlaylistLibrary after each change.
+     */
+    void playlistAdded(int playlistIndex, Playlist playlist) {
+        try {
+            out.writeByte(ADD_PLAYLIST);
+            out.writeInt(playlistIndex);
+            out.writeInt(playlist.getSize());
+            SongNode last = playlist.getLast();
+            if (last != null) {
+                SongNode ptr = last;
+                do {
+                    ptr = ptr.getNext();
+                    writeSong(ptr.getSong());
+                } while (ptr != last);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    void playlistRemoved(int playlistIndex) {
+        try {
+            out.writeByte(REMOVE_PLAYLIST);
+            out.writeInt(playlistIndex);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    void songInserted(int playlistIndex, int position, Song song) {
+        try {
+            out.writeByte(INSERT_SONG);
+            out.writeInt(playlistIndex);
+            out.writeInt(position);
+            writeSong(song);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    void songRemoved(int playlistIndex, Song song) {
+        try {
+            out.writeByte(REMOVE_SONG);
+            out.writeInt(playlistIndex);
+            writeSong(song);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    void songsInserted(int playlistIndex, List<SongInsertion> insertions) {
+        try {
+            out.writeByte(INSERT_SONGS);
+            out.writeInt(playlistIndex);
+            out.writeInt(insertions.size());
+            for (SongInsertion insertion : insertions) {
+                out.writeInt(insertion.getPosition());
+                writeSong(insertion.getSong());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    void songsRemoved(int playlistIndex, List<Song> songs) {
+        try {
+            out.writeByte(REMOVE_SONGS);
+            out.writeInt(playlistIndex);
+            out.writeInt(songs.size());
+            for (Song song : songs) {
+                writeSong(song);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    void reversed(int playlistIndex) {
+        playlistChanged(REVERSE, playlistIndex);
+    }
+
+    void sorted(int playlistIndex) {
+        playlistChanged(SORT, playlistIndex);
+    }
+
+    void merged(int[] playlistIndexes) {
+        try {
+            out.writeByte(MERGE);
+            writeInts(playlistIndexes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    /*
+     * order[i] is the position, before the shuffle, of the song that is now at
+     * position i (both counted from 0).
+     */
+    void shuffled(int playlistIndex, int[] order) {
+        try {
+            out.writeByte(SHUFFLE);
+            out.writeInt(playlistIndex);
+            writeInts(order);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    private void playlistChanged(byte type, int playlistIndex) {
+        try {
+            out.writeByte(type);
+            out.writeInt(playlistIndex);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logged();
+    }
+
+    // Frame the entry that was just written to out and commit if the group is full
+    private void logged() {
+        try {
+            out.flush();
+            byte[] bytes = entry.toByteArray();
+            entry.reset();
+            crc.reset();
+            crc.update(bytes, 0, bytes.length);
+
+            DataOutputStream frame = new DataOutputStream(group);
+            frame.writeInt(bytes.length);
+            frame.writeInt((int) crc.getValue());
+            frame.write(bytes);
+            pending++;
+
+            if (pending >= groupSize) {
+                commit();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Apply every complete entry of the current log to the library, and cut off a torn tail
+    private void replay() throws IOException {
+        Path path = logPath(generation);
+        if (!Files.exists(path)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(path);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        long valid = 0;
+        while (true) {
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || length > in.available()) {
+                    break;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            apply(new DataInputStream(new ByteArrayInputStream(payload)));
+            valid += 8 + payload.length;
+        }
+
+        if (valid < bytes.length) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    // Redo one logged change
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        int playlistIndex = type == MERGE ? 0 : in.readInt();
+        switch (type) {
+            case ADD_PLAYLIST: {
+                int size = in.readInt();
+                SongNode first = null;
+                SongNode last = null;
+                for (int i = 0; i < size; i++) {
+                    SongNode newNode = new SongNode(readSong(in), null);
+                    if (first == null) {
+                        first = newNode;
+                    } else {
+                        last.setNext(newNode);
+                    }
+                    last = newNode;
+                }
+                if (last != null) {
+                    last.setNext(first);
+                }
+                if (library.getPlaylists() == null) {
+                    library.setPlaylists(new ArrayList<Playlist>());
+                }
+                library.getPlaylists().add(playlistIndex, new Playlist(last, size));
+                break;
+            }
+            case REMOVE_PLAYLIST:
+                library.removePlaylist(playlistIndex);
+                break;
+            case INSERT_SONG: {
+                int position = in.readInt();
+                library.insertSong(playlistIndex, position, readSong(in));
+                break;
+            }
+            case REMOVE_SONG:
+                library.removeSong(playlistIndex, readSong(in));
+                break;
+            case INSERT_SONGS: {
+                int count = in.readInt();
+                ArrayList<SongInsertion> insertions = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int position = in.readInt();
+                    insertions.add(new SongInsertion(position, readSong(in)));
+                }
+                library.insertSongs(playlistIndex, insertions);
+                break;
+            }
+            case REMOVE_SONGS: {
+                int count = in.readInt();
+                ArrayList<Song> songs = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    songs.add(readSong(in));
+                }
+                library.removeSongs(playlistIndex, songs);
+                break;
+            }
+            case REVERSE:
+                library.reversePlaylist(playlistIndex);
+                break;
+            case MERGE:
+                library.mergePlaylists(readInts(in));
+                break;
+            case SHUFFLE:
+                library.permutePlaylist(playlistIndex, readInts(in));
+                break;
+            case SORT:
+                library.sortPlaylist(playlistIndex);
+                break;
+            default:
+                throw new IOException("Unknown journal entry " + type + ".");
+        }
+    }
+
+    // Write the library as the snapshot of a generation, atomically
+    private void snapshot(long snapshotGeneration) throws IOException {
+        Path target = snapshotPath(snapshotGeneration);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        PlaylistArchive.write(library, temp.toString());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void openLog() throws IOException {
+        log = FileChannel.open(logPath(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private Path snapshotPath(long snapshotGeneration) {
+        return directory.resolve("snapshot-" + snapshotGeneration + ".mlib");
+    }
+
+    private Path logPath(long logGeneration) {
+        return directory.resolve("journal-" + logGeneration + ".log");
+    }
+
+    // Remove the files a compaction that was cut short left behind
+    private void deleteOlderGenerations() throws IOException {
+        String[] names = directory.toFile().list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            long fileGeneration = generationOf(name);
+            if (fileGeneration >= 0 && fileGeneration < generation || name.endsWith(".tmp")) {
+                Files.deleteIfExists(directory.resolve(name));
+            }
+        }
+    }
+
+    // The newest generation with a complete snapshot, or -1
+    private static long latestGeneration(Path dir) {
+        long latest = -1;
+        String[] names = dir.toFile().list();
+        if (names == null) {
+            return latest;
+        }
+        for (String name : names) {
+            if (name.startsWith("snapshot-") && name.endsWith(".mlib")) {
+                latest = Math.max(latest, generationOf(name));
+            }
+        }
+        return latest;
+    }
+
+    // The generation of a snapshot-N.mlib or journal-N.log file name, or -1 for other files
+    private static long generationOf(String name) {
+        int end;
+        if (name.startsWith("snapshot-") && name.endsWith(".mlib")) {
+            end = name.length() - 5;
+        } else if (name.startsWith("journal-") && name.endsWith(".log")) {
+            end = name.length() - 4;
+        } else {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(name.indexOf('-') + 1, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void writeSong(Song song) throws IOException {
+        writeString(song.getSongName());
+        writeString(song.getArtist());
+        out.writeInt(song.getYear());
+        out.writeInt(song.getPopularity());
+        writeString(song.getFileName());
+        out.writeInt(song.getLinkYear());
+    }
+
+    private Song readSong(DataInputStream in) throws IOException {
+        String songName = readString(in);
+        String artist = library.getStringDictionary().intern(readString(in));
+        int year = in.readInt();
+        int popularity = in.readInt();
+        String link = readString(in);
+        return new Song(songName, artist, year, popularity, link, in.readInt(), library.getSongDirectory());
+    }
+
+    private void writeString(String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private void writeInts(int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int[] values = new int[in.readInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+}
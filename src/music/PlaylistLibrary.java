@@ -1,10 +1,21 @@
 package music;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class PlaylistLibrary {
 
     private ArrayList<Playlist> songLibrary; // contains various playlists
+    private StringDictionary stringDictionary = new StringDictionary(); // shared artist names
+    private SongDirectory songDirectory = SongDirectory.DEFAULT; // root of the song files
+    private PlaylistSource playlistSource = new PlaylistReader(stringDictionary, songDirectory); // reads playlist input files
+    private PlaylistJournal journal; // logs every change, if set
+    private PcmCache pcmCache; // decoded songs for playPlaylist, off unless set
+
+    private static final int PRINT_CHUNK = 1 << 16; // chars rendered before they are handed to StdOut
 
     public PlaylistLibrary(ArrayList<Playlist> songLibrary) {
         this.songLibrary = songLibrary;
@@ -15,72 +26,17 @@ public class PlaylistLibrary {
     }
 
     public Playlist createPlaylist(String filename) {
-        StdIn.setFile(filename);
-
-        // Beginning and the end of the playlists.
-        SongNode first = null;
-        SongNode last = null;
-        // Counts the songs added to the playlists
-        int songCount = 0;
-
-        // IF there are more lines to read from, keep running.
-        while (StdIn.hasNextLine()) {
-
-            String line = StdIn.readLine();
-            // Tries to make a song from the line
-            Song newSong = parseSongFromLine(line);
-
-            // If the top newSong fails, move to next line
-            if (newSong == null) {
-                continue;
-            }
-
-            // Create the container for the song.
-            SongNode newNode = new SongNode(newSong, null);
-
-            // if this is the first song added
-            if (first == null) {
-                first = newNode; // declare start
-                last = newNode; // declare end
-                last.setNext(first);
-            } else {
-                // if this isn't the first song
-                newNode.setNext(first);
-                last.setNext(newNode);
-                last = newNode;
-            }
-            songCount++;
-        }
-
-        return new Playlist(last, songCount); // return the play list
-    }
-
-    // Create a song from a line, adds song details,
-    private Song parseSongFromLine(String line) {
-        String[] songDetails = line.split(",");
-
-        // if the song doesn't contain all details, then the song is incomplete and wont make the song
-        if (songDetails.length != 5) {
-            return null;
-        }
-
-        // attempt to create a song
-        try {
-            return new Song(songDetails[0], songDetails[1], Integer.parseInt(songDetails[2]), Integer.parseInt(songDetails[3]), songDetails[4]);
-        } catch (NumberFormatException e) {
-            // if the song details are invalid, "Year is not a # or something"
-            return null;
-        }
+        // Reads the file through the library's own source instead of the shared StdIn scanner,
+        // skipping every line that is not a valid song.
+        return playlistSource.read(filename);
     }
 
     /**
-     * ****DO NOT**** UPDATE THIS METHOD
-     * This method is already implemented for you.
-     * <p>
      * Adds a new playlist into the song library at a certain index.
      * <p>
      * 1. Calls createPlayList() with a file containing song information.
      * 2. Adds the new playlist created by createPlayList() into the songLibrary.
+     * 3. Logs the new playlist to the journal, if the library has one.
      * <p>
      * Note: initialize the songLibrary if it is null
      *
@@ -89,9 +45,6 @@ public class PlaylistLibrary {
      *                      be added
      */
     public void addPlaylist(String filename, int playlistIndex) {
-
-        /* DO NOT UPDATE THIS METHOD */
-
         if (songLibrary == null) {
             songLibrary = new ArrayList<Playlist>();
         }
@@ -100,29 +53,88 @@ public class PlaylistLibrary {
         } else {
             songLibrary.add(playlistIndex, createPlaylist(filename));
         }
+
+        if (journal != null) {
+            int added = Math.min(playlistIndex, songLibrary.size() - 1);
+            journal.playlistAdded(added, songLibrary.get(added));
+        }
     }
 
     /**
-     * ****DO NOT**** UPDATE THIS METHOD
-     * This method is already implemented for you.
-     * <p>
      * It takes a playlistIndex, and removes the playlist located at that index.
+     * The removal is logged to the journal, if the library has one.
      *
      * @param playlistIndex the index of the playlist to remove
      * @return true if the playlist has been deleted
      */
     public boolean removePlaylist(int playlistIndex) {
-        /* DO NOT UPDATE THIS METHOD */
-
         if (songLibrary == null || playlistIndex >= songLibrary.size()) {
             return false;
         }
 
         songLibrary.remove(playlistIndex);
 
+        if (journal != null) {
+            journal.playlistRemoved(playlistIndex);
+        }
         return true;
     }
 
+    /**
+     * Replaces the playlist at playlistIndex with an IndexedPlaylist over the
+     * same songs, so positional operations on it take O(log n).
+     *
+     * @param playlistIndex the playlist to index
+     * @return the indexed playlist
+     */
+    public IndexedPlaylist indexPlaylist(int playlistIndex) {
+        if (songLibrary == null || playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            throw new IllegalArgumentException("Invalid playlist index.");
+        }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+        if (playlist instanceof IndexedPlaylist) {
+            return (IndexedPlaylist) playlist;
+        }
+
+        IndexedPlaylist indexed = new IndexedPlaylist(playlist);
+        songLibrary.set(playlistIndex, indexed);
+        return indexed;
+    }
+
+    /**
+     * Turns on the song index of the playlist at playlistIndex, so removeSong
+     * finds songs in O(1) instead of walking the playlist.
+     *
+     * @param playlistIndex the playlist to index
+     */
+    public void indexSongs(int playlistIndex) {
+        if (songLibrary == null || playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            throw new IllegalArgumentException("Invalid playlist index.");
+        }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+        if (playlist.getSongIndex() == null) {
+            playlist.setSongIndex(new SongIndex());
+            reindexSongs(playlist);
+        }
+    }
+
+    // Rebuild the song index of a playlist whose nodes were relinked, if it has one
+    private void reindexSongs(Playlist playlist) {
+        if (playlist.getSongIndex() != null) {
+            playlist.getSongIndex().rebuild(playlist.getLast());
+        }
+        relinked(playlist);
+    }
+
+    // Mark the treap of an indexed playlist out of date after its nodes were relinked
+    private static void relinked(Playlist playlist) {
+        if (playlist instanceof IndexedPlaylist) {
+            ((IndexedPlaylist) playlist).relinked();
+        }
+    }
+
     public void addAllPlaylists(String[] filenames) {
 
         // 1. Initialize the songLibrary if it is null.
@@ -139,6 +151,123 @@ public class PlaylistLibrary {
         }
     }
 
+    /**
+     * Loads the playlist files concurrently on up to the given number of threads,
+     * then adds them to the end of the songLibrary in the order of filenames.
+     *
+     * @param filenames the playlist information input files
+     * @param threads   the maximum number of files parsed at the same time
+     * @return the time in nanoseconds each file took to load, in the order of filenames
+     */
+    public long[] addAllPlaylists(String[] filenames, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        if (songLibrary == null) {
+            songLibrary = new ArrayList<Playlist>();
+        }
+
+        long[] loadTimes = new long[filenames.length];
+        if (filenames.length == 0) {
+            return loadTimes;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, filenames.length));
+        try {
+            // Submit every file first so they are parsed in parallel.
+            ArrayList<Future<Playlist>> loads = new ArrayList<>(filenames.length);
+            for (int i = 0; i < filenames.length; i++) {
+                final String filename = filenames[i];
+                final int fileIndex = i;
+                loads.add(pool.submit(() -> {
+                    long start = System.nanoTime();
+                    Playlist playlist = createPlaylist(filename);
+                    loadTimes[fileIndex] = System.nanoTime() - start;
+                    return playlist;
+                }));
+            }
+
+            // Collect the results in the requested order.
+            for (Future<Playlist> load : loads) {
+                songLibrary.add(load.get());
+                if (journal != null) {
+                    journal.playlistAdded(songLibrary.size() - 1, songLibrary.get(songLibrary.size() - 1));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading playlists.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not load playlists.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return loadTimes;
+    }
+
+    /**
+     * Writes the playlist at playlistIndex to a playlist input file.
+     *
+     * @param playlistIndex the playlist to write
+     * @param filename      the file to create or replace
+     * @return the number of songs written, or -1 if the file could not be written
+     */
+    public int exportPlaylist(int playlistIndex, String filename) {
+        if (songLibrary == null || playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            throw new IllegalArgumentException("Invalid playlist index.");
+        }
+        return new PlaylistWriter().write(songLibrary.get(playlistIndex), filename);
+    }
+
+    /**
+     * Writes every playlist to its own playlist input file, on up to the given
+     * number of threads. Playlist i goes to filenames[i].
+     * <p>
+     * Songs without a link, or with a comma or line break in a field, can not be
+     * written and are skipped.
+     *
+     * @param filenames the files to create or replace, one per playlist
+     * @param threads   the maximum number of files written at the same time
+     * @return the number of songs written to each file, or -1 for a file that could not be written
+     */
+    public int[] exportPlaylists(String[] filenames, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        int playlists = songLibrary == null ? 0 : songLibrary.size();
+        if (filenames.length != playlists) {
+            throw new IllegalArgumentException("Expected " + playlists + " file names.");
+        }
+
+        int[] written = new int[playlists];
+        if (playlists == 0) {
+            return written;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, playlists));
+        try {
+            ArrayList<Future<Integer>> exports = new ArrayList<>(playlists);
+            for (int i = 0; i < playlists; i++) {
+                final Playlist playlist = songLibrary.get(i);
+                final String filename = filenames[i];
+                exports.add(pool.submit(() -> new PlaylistWriter().write(playlist, filename)));
+            }
+            for (int i = 0; i < playlists; i++) {
+                written[i] = exports.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while exporting playlists.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not export playlists.", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        return written;
+    }
+
     public boolean insertSong(int playlistIndex, int position, Song song) {
 
         // Ensure songLibrary has been initialized
@@ -166,6 +295,15 @@ public class PlaylistLibrary {
             return false;
         }
 
+        // Indexed playlists find the position in O(log n) instead of walking to it.
+        if (playlist instanceof IndexedPlaylist) {
+            ((IndexedPlaylist) playlist).insert(position, song);
+            if (journal != null) {
+                journal.songInserted(playlistIndex, position, song);
+            }
+            return true;
+        }
+
         // Create the new song node.
         SongNode newNode = new SongNode(song, null);
 
@@ -178,6 +316,9 @@ public class PlaylistLibrary {
             if (playlistSize == 0) { // If the playlist was empty, this is also the last song.
                 playlist.setLast(newNode);
             }
+            if (playlist.getSongIndex() != null) {
+                playlist.getSongIndex().linked(playlist.getLast(), newNode);
+            }
         } else {
             SongNode current = playlist.getLast().getNext(); // Start at the first song.
             for (int i = 1; i < position - 1; i++) { // Traverse until the position before where we want to insert.
@@ -190,6 +331,9 @@ public class PlaylistLibrary {
             }
             newNode.setNext(current.getNext());  // Set the new node's next pointer.
             current.setNext(newNode);  // Insert the new node after the current node.
+            if (playlist.getSongIndex() != null) {
+                playlist.getSongIndex().linked(current, newNode);
+            }
 
             // If we're inserting at the end, update the playlist's last node pointer.
             if (position == playlistSize + 1) {
@@ -199,6 +343,9 @@ public class PlaylistLibrary {
         // Step 4: Increase the playlist's size.
         playlist.setSize(playlistSize + 1);
 
+        if (journal != null) {
+            journal.songInserted(playlistIndex, position, song);
+        }
         return true;
     }
 
@@ -225,22 +372,75 @@ public class PlaylistLibrary {
             return false; // Empty playlist, nothing to remove
         }
 
+        SongIndex songIndex = playlist.getSongIndex();
+
+        // Indexed playlists unlink the node through the treap, so it stays in sync.
+        if (playlist instanceof IndexedPlaylist) {
+            IndexedPlaylist indexed = (IndexedPlaylist) playlist;
+            SongNode node = null;
+            if (songIndex != null && !songIndex.isDuplicate(song)) {
+                SongNode prev = songIndex.predecessorOf(song);
+                node = prev == null ? null : prev.getNext();
+            } else {
+                SongNode ptr = playlist.getLast();
+                for (int i = 0; i < playlistSize && node == null; i++) {
+                    ptr = ptr.getNext();
+                    if (song.equals(ptr.getSong())) {
+                        node = ptr;
+                    }
+                }
+            }
+            if (node == null) {
+                return false; // Song not in the playlist.
+            }
+            indexed.removeNode(indexed.positionOf(node));
+            if (journal != null) {
+                journal.songRemoved(playlistIndex, song);
+            }
+            return true;
+        }
+
+        // With a song index, jump straight to the node before the song.
+        if (songIndex != null && !songIndex.isDuplicate(song)) {
+            SongNode prev = songIndex.predecessorOf(song);
+            if (prev == null) {
+                return false; // Song not in the playlist.
+            }
+            SongNode current = prev.getNext();
+            if (current == playlist.getLast()) {
+                playlist.setLast(prev == current ? null : prev);
+            }
+            prev.setNext(current.getNext());
+            songIndex.unlinked(prev, current);
+            playlist.setSize(playlistSize - 1);
+            if (journal != null) {
+                journal.songRemoved(playlistIndex, song);
+            }
+            return true;
+        }
+
         SongNode current = playlist.getLast().getNext();  // Start at the first song.
         SongNode prev = playlist.getLast();  // Initialize prev to the last song.
 
         for (int i = 0; i < playlistSize; i++) {
             // Check if the current song is the one to remove.
             if (song.equals(current.getSong())) {
-                // Special case: Removing the last song in the list.
+                // Special case: Removing the last song in the list (or its only song).
                 if (current == playlist.getLast()) {
-                    playlist.setLast(prev);
+                    playlist.setLast(prev == current ? null : prev);
                 }
 
                 // Remove the current node by adjusting the 'next' pointer of the previous node.
                 prev.setNext(current.getNext());
+                if (songIndex != null) {
+                    songIndex.unlinked(prev, current);
+                }
 
                 // Decrease the size of the playlist.
                 playlist.setSize(playlistSize - 1);
+                if (journal != null) {
+                    journal.songRemoved(playlistIndex, song);
+                }
                 return true; // Song found and removed.
             }
 
@@ -252,6 +452,144 @@ public class PlaylistLibrary {
         return false; // Song not found in the playlist.
     }
 
+    /**
+     * Inserts many songs into the playlist at playlistIndex in one pass over the list.
+     * <p>
+     * Every position refers to the playlist as it was before the batch, from 1
+     * (before the first song) to size + 1 (after the last song). Songs with the
+     * same position are inserted in the order they appear in insertions.
+     *
+     * @param playlistIndex the playlist to insert into
+     * @param insertions    the songs and their positions
+     * @return for each insertion, true if it was inserted and false if its position was invalid
+     */
+    public boolean[] insertSongs(int playlistIndex, List<SongInsertion> insertions) {
+        boolean[] inserted = new boolean[insertions.size()];
+
+        // Same checks as insertSong: the playlist must exist and have songs.
+        if (songLibrary == null || playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return inserted;
+        }
+        Playlist playlist = songLibrary.get(playlistIndex);
+        if (playlist == null || playlist.getLast() == null) {
+            return inserted;
+        }
+        int playlistSize = playlist.getSize();
+
+        // Sort the valid insertions by position, keeping the batch order for equal
+        // positions: the position goes in the high bits and the batch index in the low bits.
+        long[] order = new long[insertions.size()];
+        int valid = 0;
+        for (int i = 0; i < insertions.size(); i++) {
+            int position = insertions.get(i).getPosition();
+            if (position >= 1 && position <= playlistSize + 1) {
+                order[valid++] = ((long) position << 32) | i;
+            }
+        }
+        Arrays.sort(order, 0, valid);
+
+        // Walk the list once. prev is the node right before the original song at
+        // the current position (the last node for position 1).
+        SongNode last = playlist.getLast();
+        SongNode prev = last;
+        int current = 1;
+        for (int k = 0; k < valid; k++) {
+            int position = (int) (order[k] >>> 32);
+            int i = (int) order[k];
+            while (current < position) {
+                prev = prev.getNext();
+                current++;
+            }
+
+            SongNode newNode = new SongNode(insertions.get(i).getSong(), prev.getNext());
+            prev.setNext(newNode);
+            if (playlist.getSongIndex() != null) {
+                playlist.getSongIndex().linked(prev, newNode);
+            }
+            prev = newNode; // songs at the same position follow each other
+            if (position == playlistSize + 1) {
+                last = newNode;
+            }
+            inserted[i] = true;
+        }
+
+        playlist.setLast(last);
+        playlist.setSize(playlistSize + valid);
+        relinked(playlist);
+        if (journal != null && valid > 0) {
+            journal.songsInserted(playlistIndex, insertions);
+        }
+        return inserted;
+    }
+
+    /**
+     * Removes many songs from the playlist at playlistIndex in one pass over the list.
+     * <p>
+     * Each entry removes the first remaining occurrence of that song, exactly as
+     * calling removeSong once per entry would; a song listed twice removes two
+     * occurrences.
+     *
+     * @param playlistIndex the playlist to remove from
+     * @param songs         the songs to remove
+     * @return for each song, true if it was found and removed
+     */
+    public boolean[] removeSongs(int playlistIndex, List<Song> songs) {
+        boolean[] removed = new boolean[songs.size()];
+
+        // Same checks as removeSong: the playlist must exist and have songs.
+        if (songLibrary == null || playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            return removed;
+        }
+        Playlist playlist = songLibrary.get(playlistIndex);
+        if (playlist == null || playlist.getLast() == null || playlist.getSize() == 0) {
+            return removed;
+        }
+
+        // Which batch entries are still waiting for each song, in batch order.
+        HashMap<Song, ArrayDeque<Integer>> pending = new HashMap<>();
+        for (int i = 0; i < songs.size(); i++) {
+            pending.computeIfAbsent(songs.get(i), song -> new ArrayDeque<>()).add(i);
+        }
+        int waiting = songs.size();
+
+        SongNode last = playlist.getLast();
+        SongNode prev = last;
+        SongNode current = last.getNext();
+        int remaining = 0;
+        while (true) {
+            SongNode next = current.getNext();
+            boolean atLast = current == last;
+
+            ArrayDeque<Integer> entries = waiting > 0 ? pending.get(current.getSong()) : null;
+            if (entries != null && !entries.isEmpty()) {
+                // Unlink the current node; prev stays where it is.
+                removed[entries.poll()] = true;
+                waiting--;
+                prev.setNext(next);
+                if (playlist.getSongIndex() != null) {
+                    playlist.getSongIndex().unlinked(prev, current);
+                }
+            } else {
+                prev = current;
+                remaining++;
+            }
+
+            if (atLast) {
+                break;
+            }
+            current = next;
+        }
+
+        // prev is now the last song that was kept.
+        playlist.setLast(remaining == 0 ? null : prev);
+        playlist.setSize(remaining);
+        relinked(playlist);
+        if (journal != null && waiting < songs.size()) {
+            journal.songsRemoved(playlistIndex, songs);
+        }
+        return removed;
+    }
+
     public void reversePlaylist(int playlistIndex) {
         // Check if the playlistIndex is valid.
         if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
@@ -282,95 +620,150 @@ public class PlaylistLibrary {
 
         // Update the last node in the playlist.
         playlist.setLast(firstNode);
+        reindexSongs(playlist);
+        if (journal != null) {
+            journal.reversed(playlistIndex);
+        }
     }
 
     //working
     public void mergePlaylists(int playlistIndex1, int playlistIndex2) {
-        // [Step 1] Identify lower and higher index playlists
-        int lowerIndex = Math.min(playlistIndex1, playlistIndex2);
-        int higherIndex = Math.max(playlistIndex1, playlistIndex2);
+        mergePlaylists(new int[] {playlistIndex1, playlistIndex2});
+    }
 
-        Playlist lowerPlaylist = songLibrary.get(lowerIndex);
-        Playlist higherPlaylist = songLibrary.get(higherIndex);
+    /**
+     * Merges any number of playlists into the one with the lowest index and
+     * removes the others from the songLibrary.
+     * <p>
+     * The songs are taken in decreasing popularity from the fronts of the playlists
+     * with a heap, so merging N playlists of n songs in total takes O(n log N) in
+     * one pass. On equal popularity the song from the lower index goes first.
+     * While merging, the most popular song and the node before it are tracked, so
+     * the merged circle is rotated to start at the most popular song without
+     * scanning it again.
+     *
+     * @param playlistIndexes the playlists to merge
+     */
+    public void mergePlaylists(int[] playlistIndexes) {
+        // [Step 1] Validate the indexes and sort them, dropping repeats
+        int[] indexes = playlistIndexes.clone();
+        Arrays.sort(indexes);
+        int count = 0;
+        for (int i = 0; i < indexes.length; i++) {
+            if (indexes[i] < 0 || indexes[i] >= songLibrary.size()) {
+                throw new IllegalArgumentException("Invalid playlist index.");
+            }
+            if (count == 0 || indexes[count - 1] != indexes[i]) {
+                indexes[count++] = indexes[i];
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        Playlist mergedPlaylist = songLibrary.get(indexes[0]);
+
+        // [Step 2] The front and last node of every non-empty playlist; the
+        // position in these arrays breaks popularity ties.
+        SongNode[] fronts = new SongNode[count];
+        SongNode[] lasts = new SongNode[count];
+        int[] heap = new int[count];
+        int heapSize = 0;
+        for (int i = 0; i < count; i++) {
+            Playlist playlist = songLibrary.get(indexes[i]);
+            if (playlist.getSize() > 0) {
+                SongNode last = playlist.getLast();
+                fronts[i] = last.getNext();
+                lasts[i] = last;
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++, fronts);
+            }
+        }
 
-        // [Step 2] Declare references for merged playlist
-        SongNode mergedLast = null;
+        // [Step 3] Repeatedly move the most popular front song to the end of the merged list
         SongNode mergedFirst = null;
+        SongNode mergedLast = null;
+        SongNode highest = null;            // first node with the highest popularity so far
+        SongNode beforeHighest = null;      // node appended right before it
+        int size = 0;
 
-        // [Step 3 & 4] While both playlists have songs, compare and move the higher popularity song
-        while (lowerPlaylist.getSize() > 0 && higherPlaylist.getSize() > 0) {
-            SongNode lowerFirst = lowerPlaylist.getLast().getNext();
-            SongNode higherFirst = higherPlaylist.getLast().getNext();
-
-            boolean useLower = lowerFirst.getSong().getPopularity() >= higherFirst.getSong().getPopularity();
+        while (heapSize > 0) {
+            int source = heap[0];
+            SongNode toMove = fronts[source];
 
-            SongNode toMove;
-            if (useLower) {
-                toMove = lowerFirst;
-                lowerPlaylist.getLast().setNext(lowerFirst.getNext());
-                if (lowerFirst == lowerPlaylist.getLast()) {
-                    lowerPlaylist.setLast(null);
-                }
-                lowerPlaylist.setSize(lowerPlaylist.getSize() - 1);
+            if (toMove == lasts[source]) {
+                // This playlist is used up: move the heap's last entry to the top.
+                heap[0] = heap[--heapSize];
             } else {
-                toMove = higherFirst;
-                higherPlaylist.getLast().setNext(higherFirst.getNext());
-                if (higherFirst == higherPlaylist.getLast()) {
-                    higherPlaylist.setLast(null);
-                }
-                higherPlaylist.setSize(higherPlaylist.getSize() - 1);
+                fronts[source] = toMove.getNext();
             }
+            siftDown(heap, heapSize, fronts);
 
-            if (mergedLast == null) {
-                mergedLast = toMove;
+            if (mergedFirst == null) {
                 mergedFirst = toMove;
-                toMove.setNext(toMove);
             } else {
-                toMove.setNext(mergedFirst);
                 mergedLast.setNext(toMove);
-                mergedLast = toMove;
             }
+            if (highest == null || toMove.getSong().getPopularity() > highest.getSong().getPopularity()) {
+                highest = toMove;
+                beforeHighest = mergedLast;
+            }
+            mergedLast = toMove;
+            size++;
         }
 
-        // [Step 5] Append the non-empty playlist to the merged playlist
-        Playlist nonEmptyPlaylist = lowerPlaylist.getSize() > 0 ? lowerPlaylist : higherPlaylist;
-        if (mergedLast == null) {
-            mergedLast = nonEmptyPlaylist.getLast();
-            mergedFirst = nonEmptyPlaylist.getLast().getNext();
-        } else if (nonEmptyPlaylist.getLast() != null) {
-            mergedLast.setNext(nonEmptyPlaylist.getLast().getNext());
-            nonEmptyPlaylist.getLast().setNext(mergedFirst);
+        // [Step 4] Close the circle so that it starts at the first most popular song.
+        SongNode newLast = null;
+        if (mergedFirst != null) {
+            mergedLast.setNext(mergedFirst);
+            newLast = beforeHighest == null ? mergedLast : beforeHighest;
         }
 
-        // [Step 6] Assign the merged playlist to the lower index and remove the higher index playlist
-        lowerPlaylist.setLast(mergedLast);
-        lowerPlaylist.setSize(lowerPlaylist.getSize() + higherPlaylist.getSize());
-        removePlaylist(higherIndex);
+        // [Step 5] Keep the merged playlist at the lowest index and remove the others
+        mergedPlaylist.setLast(newLast);
+        mergedPlaylist.setSize(size);
+        for (int i = count - 1; i > 0; i--) {
+            songLibrary.remove(indexes[i]);
+        }
+        reindexSongs(mergedPlaylist);
+        if (journal != null) {
+            journal.merged(playlistIndexes);
+        }
+    }
 
-        // [Additional Step] Ensure the first song is the one with the highest popularity
-        if (mergedLast != null) {
-            SongNode current = mergedLast.getNext(); // Start from the first song
-            SongNode highestPopularityNode = mergedLast;
-            int highestPopularity = mergedLast.getSong().getPopularity();
+    // True if the front song of playlist a should be merged before the front song of playlist b
+    private static boolean mergesBefore(int a, int b, SongNode[] fronts) {
+        int popularityA = fronts[a].getSong().getPopularity();
+        int popularityB = fronts[b].getSong().getPopularity();
+        return popularityA > popularityB || (popularityA == popularityB && a < b);
+    }
 
-            do {
-                if (current.getSong().getPopularity() > highestPopularity) {
-                    highestPopularity = current.getSong().getPopularity();
-                    highestPopularityNode = current;
-                }
-                current = current.getNext();
-            } while (current != mergedLast.getNext()); // Loop until we've checked all songs
+    // Move heap[k] up until its parent merges before it
+    private static void siftUp(int[] heap, int k, SongNode[] fronts) {
+        while (k > 0 && mergesBefore(heap[k], heap[(k - 1) / 2], fronts)) {
+            int parent = (k - 1) / 2;
+            int swap = heap[k];
+            heap[k] = heap[parent];
+            heap[parent] = swap;
+            k = parent;
+        }
+    }
 
-            // Find the node that points to the highest popularity node
-            SongNode pointerToHighestPopularityNode = mergedLast;
-            while (pointerToHighestPopularityNode.getNext() != highestPopularityNode) {
-                pointerToHighestPopularityNode = pointerToHighestPopularityNode.getNext();
+    // Move heap[0] down until it merges before both of its children
+    private static void siftDown(int[] heap, int heapSize, SongNode[] fronts) {
+        int k = 0;
+        while (2 * k + 1 < heapSize) {
+            int child = 2 * k + 1;
+            if (child + 1 < heapSize && mergesBefore(heap[child + 1], heap[child], fronts)) {
+                child++;
             }
-
-            // Set the last node in the playlist to be the one that points to the highest popularity song
-            lowerPlaylist.setLast(pointerToHighestPopularityNode);
+            if (!mergesBefore(heap[child], heap[k], fronts)) {
+                break;
+            }
+            int swap = heap[k];
+            heap[k] = heap[child];
+            heap[child] = swap;
+            k = child;
         }
-
     }
 
 
@@ -389,6 +782,16 @@ public class PlaylistLibrary {
             throw new IllegalArgumentException("Invalid playlist.");
         }
 
+        // Remember where every song was, to log the order the shuffle produces.
+        IdentityHashMap<SongNode, Integer> positions = journal == null ? null : positions(playlistToShuffle);
+
+        // Indexed playlists remove the random positions in O(log n) each.
+        if (playlistToShuffle instanceof IndexedPlaylist) {
+            shuffleIndexedPlaylist((IndexedPlaylist) playlistToShuffle);
+            logShuffle(playlistIndex, positions);
+            return;
+        }
+
         // Create a new playlist to store the shuffled playlist in
         Playlist shuffledPlaylist = new Playlist();
 
@@ -439,7 +842,156 @@ public class PlaylistLibrary {
         }
 
         // Update the old playlist with the new shuffled playlist
+        shuffledPlaylist.setSize(playlistToShuffle.getSize());
+        shuffledPlaylist.setSongIndex(playlistToShuffle.getSongIndex());
+        reindexSongs(shuffledPlaylist);
         songLibrary.set(playlistIndex, shuffledPlaylist);
+        logShuffle(playlistIndex, positions);
+    }
+
+    // The positional shuffle above, drawing the same random numbers, on an indexed playlist
+    private void shuffleIndexedPlaylist(IndexedPlaylist playlist) {
+        int size = playlist.getSize();
+        SongNode[] removed = new SongNode[size];
+        for (int i = 0; i < size; i++) {
+            // uniformInt(remaining + 1) is in [0, remaining]; 0 and 1 both pick the first song
+            int randomIndex = StdRandom.uniformInt(size - i + 1);
+            removed[i] = playlist.removeNode(Math.max(randomIndex, 1));
+        }
+
+        // Every removed song went to the front, so the last one removed plays first.
+        for (int i = size - 1; i > 0; i--) {
+            removed[i].setNext(removed[i - 1]);
+        }
+        removed[0].setNext(removed[size - 1]);
+        playlist.setLast(removed[0]);
+        playlist.setSize(size);
+        reindexSongs(playlist);
+    }
+
+    /**
+     * Shuffles the playlist located at playlistIndex.
+     * <p>
+     * With linearTime set to false this is shufflePlaylist(playlistIndex), which
+     * walks to a random position for every song (O(n^2)) and reproduces the
+     * seeded Driver output.
+     * <p>
+     * With linearTime set to true the nodes are copied into an array, permuted
+     * with a Fisher-Yates shuffle (StdRandom.shuffle) and relinked in one pass,
+     * which is O(n). The result is deterministic for a given StdRandom seed, but
+     * is a different order than the O(n^2) shuffle produces for that seed.
+     *
+     * @param playlistIndex the playlist to shuffle
+     * @param linearTime    true to use the O(n) Fisher-Yates shuffle
+     */
+    public void shufflePlaylist(int playlistIndex, boolean linearTime) {
+        if (!linearTime) {
+            shufflePlaylist(playlistIndex);
+            return;
+        }
+
+        // Validate playlist index
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            throw new IllegalArgumentException("Invalid playlist index.");
+        }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+
+        // Validate playlist
+        if (playlist == null || playlist.getLast() == null) {
+            throw new IllegalArgumentException("Invalid playlist.");
+        }
+
+        // Count the songs by walking the circle once, then snapshot the nodes.
+        SongNode last = playlist.getLast();
+        int size = 1;
+        for (SongNode ptr = last.getNext(); ptr != last; ptr = ptr.getNext()) {
+            size++;
+        }
+        SongNode[] nodes = new SongNode[size];
+        SongNode ptr = last;
+        for (int i = 0; i < size; i++) {
+            ptr = ptr.getNext();
+            nodes[i] = ptr;
+        }
+
+        IdentityHashMap<SongNode, Integer> positions = journal == null ? null : positions(playlist);
+        StdRandom.shuffle(nodes);
+
+        // Relink the nodes in their new order and close the circle.
+        relink(playlist, nodes);
+        logShuffle(playlistIndex, positions);
+    }
+
+    /**
+     * Puts the songs of the playlist at playlistIndex in the given order:
+     * order[i] is the current position of the song that moves to position i,
+     * both counted from 0. This replays a logged shuffle.
+     *
+     * @param playlistIndex the playlist to reorder
+     * @param order         a permutation of 0 to size - 1
+     */
+    void permutePlaylist(int playlistIndex, int[] order) {
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            throw new IllegalArgumentException("Invalid playlist index.");
+        }
+
+        Playlist playlist = songLibrary.get(playlistIndex);
+        if (order.length == 0) {
+            return;
+        }
+        SongNode[] nodes = new SongNode[order.length];
+        SongNode ptr = playlist.getLast();
+        for (int i = 0; i < nodes.length; i++) {
+            ptr = ptr.getNext();
+            nodes[i] = ptr;
+        }
+        SongNode[] ordered = new SongNode[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ordered[i] = nodes[order[i]];
+        }
+        relink(playlist, ordered);
+        if (journal != null) {
+            journal.shuffled(playlistIndex, order);
+        }
+    }
+
+    // Link the nodes into a circle in array order and make it the playlist
+    private void relink(Playlist playlist, SongNode[] nodes) {
+        int size = nodes.length;
+        for (int i = 0; i < size - 1; i++) {
+            nodes[i].setNext(nodes[i + 1]);
+        }
+        nodes[size - 1].setNext(nodes[0]);
+        playlist.setLast(nodes[size - 1]);
+        playlist.setSize(size);
+        reindexSongs(playlist);
+    }
+
+    // The position of every node of a playlist, counted from 0
+    private static IdentityHashMap<SongNode, Integer> positions(Playlist playlist) {
+        IdentityHashMap<SongNode, Integer> positions = new IdentityHashMap<>();
+        SongNode last = playlist.getLast();
+        SongNode ptr = last;
+        do {
+            ptr = ptr.getNext();
+            positions.put(ptr, positions.size());
+        } while (ptr != last);
+        return positions;
+    }
+
+    // Log the order a shuffle produced, given where every song was before it
+    private void logShuffle(int playlistIndex, IdentityHashMap<SongNode, Integer> positions) {
+        if (journal == null) {
+            return;
+        }
+        int[] order = new int[positions.size()];
+        SongNode ptr = songLibrary.get(playlistIndex).getLast();
+        for (int i = 0; i < order.length; i++) {
+            ptr = ptr.getNext();
+            order[i] = positions.get(ptr);
+        }
+        journal.shuffled(playlistIndex, order);
     }
 
 
@@ -452,85 +1004,206 @@ public class PlaylistLibrary {
      *
      * This method should  use a sort that has O(nlogn), such as with merge sort.
      *
-     * @param playlistIndex the playlist to shuffle
+     * @param playlistIndex the playlist to sort
      */
     public void sortPlaylist ( int playlistIndex ) {
+        // Check if the playlistIndex is valid.
+        if (playlistIndex < 0 || playlistIndex >= songLibrary.size()) {
+            throw new IllegalArgumentException("Invalid playlist index.");
+        }
 
-        // WRITE YOUR CODE HERE
+        Playlist playlist = songLibrary.get(playlistIndex);
+        SongNode lastNode = playlist.getLast();
+
+        // Check if the playlist is empty or has only one song.
+        if (lastNode == null || lastNode.getNext() == lastNode) {
+            return; // Nothing to sort.
+        }
 
+        // Break the circle so the list has a null end while sorting.
+        SongNode list = lastNode.getNext();
+        lastNode.setNext(null);
+
+        // Bottom-up merge sort: merge neighbouring runs of 1, 2, 4, ... songs by
+        // relinking the nodes, until a single pass performs only one merge.
+        // No recursion and no extra nodes or arrays are needed.
+        for (int width = 1; ; width *= 2) {
+            SongNode left = list;
+            SongNode tail = null;
+            int merges = 0;
+            list = null;
+
+            while (left != null) {
+                merges++;
+
+                // The right run starts width songs after the left run.
+                SongNode right = left;
+                int leftSize = 0;
+                while (leftSize < width && right != null) {
+                    leftSize++;
+                    right = right.getNext();
+                }
+                int rightSize = width;
+
+                // Merge the two runs, higher popularity first. Ties keep the song
+                // from the left run first so the sort is stable.
+                while (leftSize > 0 || (rightSize > 0 && right != null)) {
+                    SongNode next;
+                    if (leftSize == 0) {
+                        next = right;
+                        right = right.getNext();
+                        rightSize--;
+                    } else if (rightSize == 0 || right == null
+                            || left.getSong().getPopularity() >= right.getSong().getPopularity()) {
+                        next = left;
+                        left = left.getNext();
+                        leftSize--;
+                    } else {
+                        next = right;
+                        right = right.getNext();
+                        rightSize--;
+                    }
+
+                    if (tail == null) {
+                        list = next;
+                    } else {
+                        tail.setNext(next);
+                    }
+                    tail = next;
+                }
+
+                // The next pair of runs starts where the right run stopped.
+                left = right;
+            }
+            tail.setNext(null);
+
+            if (merges <= 1) {
+                // Close the circle again; the last node points to the most popular song.
+                tail.setNext(list);
+                playlist.setLast(tail);
+                reindexSongs(playlist);
+                if (journal != null) {
+                    journal.sorted(playlistIndex);
+                }
+                return;
+            }
+        }
     }
     /**
-     * ****DO NOT**** UPDATE THIS METHOD
      * Plays playlist by index; can use this method to debug.
+     * The songs are played by a PlaybackEngine, which decodes the next song
+     * while the current one plays.
      *
      * @param playlistIndex the playlist to print
      * @param repeats number of times to repeat playlist
      * @throws InterruptedException
      */
     public void playPlaylist(int playlistIndex, int repeats) {
-        /* DO NOT UPDATE THIS METHOD */
-
         final String NO_SONG_MSG = " has no link to a song! Playing next...";
         if (songLibrary.get(playlistIndex).getLast() == null) {
             StdOut.println("Nothing to play.");
             return;
         }
 
-        SongNode ptr = songLibrary.get(playlistIndex).getLast().getNext(), first = ptr;
+        // One engine keeps a single line open and decodes the next song while
+        // the current one plays; the listener shows the song that is playing.
+        StringBuilder line = new StringBuilder(); // reused for every song
+        PlaybackEngine engine = new PlaybackEngine(new PlaybackEngine.Listener() {
+            @Override
+            public void started(Song song) {
+                line.setLength(0);
+                StdOut.print(song.appendTo(line.append('\r')));
+            }
+
+            @Override
+            public void finished(Song song) {
+                StdOut.print(erase(line, song.getDisplayLength()));
+            }
 
-        do {
-            StdOut.print("\r" + ptr.getSong().toString());
-            if (ptr.getSong().getLink() != null) {
-                StdAudio.play(ptr.getSong().getLink());
-                for (int ii = 0; ii < ptr.getSong().toString().length(); ii++)
-                    StdOut.print("\b \b");
-            }
-            else {
-                StdOut.print(NO_SONG_MSG);
+            @Override
+            public void skipped(Song song, String reason) {
+                line.setLength(0);
+                StdOut.print(song.appendTo(line.append('\r')));
+                String message = song.getPath() == null ? NO_SONG_MSG : " " + reason + "! Playing next...";
+                StdOut.print(message);
                 try {
                     Thread.sleep(2000);
                 } catch(InterruptedException ex) {
-                    ex.printStackTrace();
+                    Thread.currentThread().interrupt();
                 }
-                for (int ii = 0; ii < NO_SONG_MSG.length(); ii++)
-                    StdOut.print("\b \b");
+                StdOut.print(erase(line, message.length()));
             }
+        }, pcmCache);
 
-            ptr = ptr.getNext();
-            if (ptr == first) repeats--;
-        } while (ptr != first || repeats > 0);
+        engine.play(songLibrary.get(playlistIndex), repeats);
+        try {
+            engine.await();
+        } catch (InterruptedException ex) {
+            engine.stop();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Fill line with the backspaces that erase the last chars chars printed
+    private static StringBuilder erase(StringBuilder line, int chars) {
+        line.setLength(0);
+        for (int ii = 0; ii < chars; ii++) {
+            line.append("\b \b");
+        }
+        return line;
     }
 
     /**
-     * ****DO NOT**** UPDATE THIS METHOD
      * Prints playlist by index; can use this method to debug.
+     * The text is built by renderPlaylist, the same way printLibrary builds it.
      *
      * @param playlistIndex the playlist to print
      */
     public void printPlaylist(int playlistIndex) {
-        StdOut.printf("%nPlaylist at index %d (%d song(s)):%n", playlistIndex, songLibrary.get(playlistIndex).getSize());
-        if (songLibrary.get(playlistIndex).getLast() == null) {
-            StdOut.println("EMPTY");
-            return;
-        }
-        SongNode ptr;
-        for (ptr = songLibrary.get(playlistIndex).getLast().getNext(); ptr != songLibrary.get(playlistIndex).getLast(); ptr = ptr.getNext() ) {
-            StdOut.print(ptr.getSong().toString() + " -> ");
-        }
-        if (ptr == songLibrary.get(playlistIndex).getLast()) {
-            StdOut.print(songLibrary.get(playlistIndex).getLast().getSong().toString() + " - POINTS TO FRONT");
-        }
-        StdOut.println();
+        StringBuilder text = new StringBuilder();
+        renderPlaylist(playlistIndex, text);
+        StdOut.print(text);
     }
 
     public void printLibrary() {
         if (songLibrary.size() == 0) {
             StdOut.println("\nYour library is empty!");
-        } else {
+            return;
+        }
+
+        // Collect the whole library in the output buffer and flush it once at the end.
+        boolean wasBuffered = StdOut.isBuffered();
+        StdOut.setBuffered(true);
+        try {
+            StringBuilder text = new StringBuilder();
             for (int ii = 0; ii < songLibrary.size(); ii++) {
-                printPlaylist(ii);
+                renderPlaylist(ii, text);
+            }
+            StdOut.print(text);
+        } finally {
+            StdOut.setBuffered(wasBuffered);
+        }
+    }
+
+    // Append the text printPlaylist prints to text, handing it to StdOut in pieces of PRINT_CHUNK chars
+    private void renderPlaylist(int playlistIndex, StringBuilder text) {
+        String newLine = System.lineSeparator();
+        Playlist playlist = songLibrary.get(playlistIndex);
+        text.append(newLine).append("Playlist at index ").append(playlistIndex)
+            .append(" (").append(playlist.getSize()).append(" song(s)):").append(newLine);
+        SongNode last = playlist.getLast();
+        if (last == null) {
+            text.append("EMPTY").append(newLine);
+            return;
+        }
+        for (SongNode ptr = last.getNext(); ptr != last; ptr = ptr.getNext()) {
+            ptr.getSong().appendTo(text).append(" -> ");
+            if (text.length() >= PRINT_CHUNK) {
+                StdOut.print(text);
+                text.setLength(0);
             }
         }
+        last.getSong().appendTo(text).append(" - POINTS TO FRONT").append(newLine);
     }
 
     /*
@@ -539,4 +1212,48 @@ public class PlaylistLibrary {
      */
     public ArrayList<Playlist> getPlaylists() { return songLibrary; }
     public void setPlaylists(ArrayList<Playlist> p) { songLibrary = p; }
+
+    public StringDictionary getStringDictionary() { return stringDictionary; }
+
+    public SongDirectory getSongDirectory() { return songDirectory; }
+
+    /*
+     * Moves the song files of the whole library to another root directory:
+     * every song already in the library, and every song read from now on by
+     * the default PlaylistReader, resolves its link under directory.
+     */
+    public void setSongDirectory(SongDirectory directory) {
+        songDirectory = directory;
+        if (playlistSource instanceof PlaylistReader) {
+            playlistSource = new PlaylistReader(stringDictionary, directory);
+        }
+        if (songLibrary == null) {
+            return;
+        }
+        for (Playlist playlist : songLibrary) {
+            SongNode last = playlist.getLast();
+            if (last == null) {
+                continue;
+            }
+            SongNode ptr = last;
+            do {
+                ptr = ptr.getNext();
+                ptr.getSong().setSongDirectory(directory);
+            } while (ptr != last);
+        }
+    }
+
+    /*
+     * The cache of decoded songs playPlaylist plays from, or null (the default)
+     * to decode every song as it is played. The cache keeps its audio, and its
+     * prefetch thread, until it is cleared or replaced.
+     */
+    public PcmCache getPcmCache() { return pcmCache; }
+    public void setPcmCache(PcmCache cache) { pcmCache = cache; }
+
+    public PlaylistJournal getJournal() { return journal; }
+    void setJournal(PlaylistJournal j) { journal = j; }
+
+    public PlaylistSource getPlaylistSource() { return playlistSource; }
+    public void setPlaylistSource(PlaylistSource source) { playlistSource = source; }
 }
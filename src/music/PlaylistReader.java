@@ -0,0 +1,258 @@
+package music;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class reads a playlist input file (one song per line, in the format
+ * name,artist,year,popularity,link) into a Playlist.
+ *
+ * The file is streamed through a FileChannel into a reusable byte buffer and
+ * every line is scanned byte by byte for commas, so no regex is compiled and
+ * no String[] is created per line. Only the fields that end up in a Song are
+ * decoded into Strings.
+ *
+ * Lines are accepted or skipped exactly like line.split(",") would: a line
+ * makes a song only if it has 5 fields (trailing empty fields do not count)
+ * and the year and popularity parse as integers.
+ */
+
+public class PlaylistReader implements PlaylistSource {
+    private static final int BUFFER_SIZE = 1 << 20; // 1MB read window
+    private static final int FIELDS = 5;             // name,artist,year,popularity,link
+    private static final long INVALID = Long.MIN_VALUE;
+
+    private final StringDictionary dictionary; // shares artist names, may be null
+    private final SongDirectory    directory;  // where the song files are
+
+    /*
+     * Constructor for a reader whose songs share strings through a dictionary
+     * and whose song files are under directory
+     */
+    public PlaylistReader(StringDictionary dictionary, SongDirectory directory) {
+        this.dictionary = dictionary;
+        this.directory = directory;
+    }
+
+    /*
+     * Constructor for a reader whose songs share strings through a dictionary
+     */
+    public PlaylistReader(StringDictionary dictionary) {
+        this(dictionary, SongDirectory.DEFAULT);
+    }
+
+    /*
+     * Default constructor: every song gets its own strings
+     */
+    public PlaylistReader() {
+        this(null);
+    }
+
+    /*
+     * Reads the given playlist file into a new circular Playlist.
+     * If the file can not be opened, an empty playlist is returned.
+     */
+    @Override
+    public Playlist read(String filename) {
+        PlaylistBuilder builder = new PlaylistBuilder(dictionary, directory);
+        if (!readSongs(filename, builder)) {
+            return new Playlist();
+        }
+        return new Playlist(builder.last, builder.songCount);
+    }
+
+    /*
+     * Reads the given playlist file and passes the details of every valid
+     * song to sink, in file order, without creating Song objects.
+     * Returns false if the file can not be opened.
+     */
+    boolean readSongs(String filename, SongSink sink) {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int[] commas = new int[FIELDS - 1];
+            int start = 0; // first unconsumed byte in buf
+            int limit = 0; // end of valid data in buf
+            boolean eof = false;
+            boolean skipLineFeed = false; // previous line ended with a lone '\r'
+
+            while (true) {
+                // find the end of the next line in the bytes we already have
+                int end = start;
+                while (end < limit && buf[end] != '\n' && buf[end] != '\r') {
+                    end++;
+                }
+
+                if (end == limit && !eof) {
+                    // the line continues past the buffer: keep the partial line and read more
+                    if (start > 0) {
+                        System.arraycopy(buf, start, buf, 0, limit - start);
+                        limit -= start;
+                        end -= start;
+                        start = 0;
+                    } else if (limit == buf.length) {
+                        byte[] bigger = new byte[buf.length * 2];
+                        System.arraycopy(buf, 0, bigger, 0, limit);
+                        buf = bigger;
+                    }
+                    int count = channel.read(ByteBuffer.wrap(buf, limit, buf.length - limit));
+                    if (count == -1) {
+                        eof = true;
+                    } else {
+                        limit += count;
+                    }
+                    continue;
+                }
+
+                if (skipLineFeed) {
+                    // second half of a "\r\n" that straddled a read
+                    skipLineFeed = false;
+                    if (start < limit && buf[start] == '\n') {
+                        start++;
+                        continue;
+                    }
+                }
+
+                if (end == limit && start == limit) {
+                    break; // no more lines
+                }
+
+                parseSong(buf, start, end, commas, sink);
+
+                // step over the line terminator ("\n", "\r\n" or "\r")
+                if (end < limit && buf[end] == '\r') {
+                    end++;
+                    if (end == limit) {
+                        skipLineFeed = true;
+                    } else if (buf[end] == '\n') {
+                        end++;
+                    }
+                } else if (end < limit) {
+                    end++;
+                }
+                start = end;
+            }
+        } catch (IOException e) {
+            System.err.println("Could not open " + filename);
+            return false;
+        }
+
+        return true;
+    }
+
+    // Pass the song on the line in buf[from, to) to sink, unless the line is not a valid song
+    private static void parseSong(byte[] buf, int from, int to, int[] commas, SongSink sink) {
+        // split(",") drops trailing empty fields
+        while (to > from && buf[to - 1] == ',') {
+            to--;
+        }
+
+        // locate the commas; a valid line has exactly FIELDS - 1 of them
+        int found = 0;
+        for (int i = from; i < to; i++) {
+            if (buf[i] == ',') {
+                if (found == commas.length) {
+                    return;
+                }
+                commas[found++] = i;
+            }
+        }
+        if (found != commas.length) {
+            return;
+        }
+
+        long year = parseInt(buf, commas[1] + 1, commas[2]);
+        long popularity = parseInt(buf, commas[2] + 1, commas[3]);
+        if (year == INVALID || popularity == INVALID) {
+            return;
+        }
+
+        String songName = new String(buf, from, commas[0] - from, StandardCharsets.UTF_8);
+        String artist = new String(buf, commas[0] + 1, commas[1] - commas[0] - 1, StandardCharsets.UTF_8);
+        String link = new String(buf, commas[3] + 1, to - commas[3] - 1, StandardCharsets.UTF_8);
+        sink.song(songName, artist, (int) year, (int) popularity, link);
+    }
+
+    // Parse buf[from, to) with the rules of Integer.parseInt, or return INVALID.
+    // Plain ASCII numbers of up to 10 digits are parsed in place; anything else
+    // (leading zeros past 10 digits, non-ASCII digits, or not a number at all)
+    // goes through Integer.parseInt itself.
+    private static long parseInt(byte[] buf, int from, int to) {
+        int start = from;
+        boolean negative = false;
+        if (from < to && (buf[from] == '-' || buf[from] == '+')) {
+            negative = buf[from] == '-';
+            from++;
+        }
+        if (from == to || to - from > 10) {
+            return parseIntSlowly(buf, start, to);
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = buf[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return parseIntSlowly(buf, start, to);
+            }
+            value = value * 10 + digit;
+        }
+        if (negative) {
+            value = -value;
+        }
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return INVALID;
+        }
+        return value;
+    }
+
+    private static long parseIntSlowly(byte[] buf, int from, int to) {
+        try {
+            return Integer.parseInt(new String(buf, from, to - from, StandardCharsets.UTF_8));
+        } catch (NumberFormatException e) {
+            return INVALID;
+        }
+    }
+
+    /*
+     * Receives the details of each valid song read by readSongs().
+     */
+    interface SongSink {
+        void song(String songName, String artist, int year, int popularity, String link);
+    }
+
+    /*
+     * Links the songs into a circular list as they are read.
+     */
+    private static class PlaylistBuilder implements SongSink {
+        private final StringDictionary dictionary;
+        private final SongDirectory    directory;
+        private SongNode first;
+        private SongNode last;
+        private int      songCount;
+
+        PlaylistBuilder(StringDictionary dictionary, SongDirectory directory) {
+            this.dictionary = dictionary;
+            this.directory = directory;
+        }
+
+        @Override
+        public void song(String songName, String artist, int year, int popularity, String link) {
+            if (dictionary != null) {
+                artist = dictionary.intern(artist);
+            }
+            SongNode newNode = new SongNode(new Song(songName, artist, year, popularity, link, directory), null);
+            if (first == null) {
+                first = newNode;
+                last = newNode;
+                last.setNext(first);
+            } else {
+                newNode.setNext(first);
+                last.setNext(newNode);
+                last = newNode;
+            }
+            songCount++;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package music;
+
+/**
+ * This interface represents a source that PlaylistLibrary reads playlist
+ * input files from.
+ *
+ * Every call to read() must keep its state (open files, buffers, scanners)
+ * to itself, so independent playlists can be read on separate threads at the
+ * same time without locking.
+ */
+
+public interface PlaylistSource {
+
+    /*
+     * Reads the given playlist input file into a new circular Playlist,
+     * skipping the lines that are not valid songs.
+     */
+    Playlist read(String filename);
+}
@@ -0,0 +1,153 @@
+package music;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class writes a Playlist back to a playlist input file (one song per
+ * line, in the format name,artist,year,popularity,link), so PlaylistReader
+ * reads the same songs back.
+ *
+ * Every line is encoded straight into a 1MB byte buffer, which goes to a
+ * FileChannel in one write when it is full. No String is built per song.
+ *
+ * A song the format can not hold is skipped: one without a link, one whose
+ * name, artist or link contains a comma or a line break, or one whose file
+ * is under another year than the song (setYear() was called after its link
+ * was set), since the reader looks for the file under the year column. A
+ * null name or artist is written as an empty field.
+ */
+
+public class PlaylistWriter {
+    private static final int BUFFER_SIZE = 1 << 20; // 1MB write window
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int    used;
+
+    /*
+     * Writes the songs of playlist to filename, in playlist order, replacing
+     * the file. Returns the number of songs written, or -1 if the file can not
+     * be written.
+     */
+    public int write(Playlist playlist, String filename) {
+        int written = 0;
+        used = 0;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            SongNode last = playlist.getLast();
+            if (last != null) {
+                SongNode ptr = last;
+                do {
+                    ptr = ptr.getNext();
+                    if (writeSong(ptr.getSong(), channel)) {
+                        written++;
+                    }
+                } while (ptr != last);
+            }
+            flush(channel);
+        } catch (IOException e) {
+            System.err.println("Could not write " + filename);
+            return -1;
+        }
+        return written;
+    }
+
+    // Encode one song as a line, unless the format can not hold it
+    private boolean writeSong(Song song, FileChannel channel) throws IOException {
+        String link = song.getFileName();
+        if (link == null || link.isEmpty() || song.getLinkYear() != song.getYear()
+                || !fits(song.getSongName()) || !fits(song.getArtist()) || !fits(link)) {
+            return false;
+        }
+
+        // a line is at most 4 bytes per char plus two ints and the separators
+        int longest = 4 * (length(song.getSongName()) + length(song.getArtist()) + link.length()) + 2 * 11 + 5;
+        if (used + longest > buf.length) {
+            flush(channel);
+            if (longest > buf.length) {
+                buf = new byte[longest];
+            }
+        }
+
+        putString(song.getSongName());
+        buf[used++] = ',';
+        putString(song.getArtist());
+        buf[used++] = ',';
+        putInt(song.getYear());
+        buf[used++] = ',';
+        putInt(song.getPopularity());
+        buf[used++] = ',';
+        putString(link);
+        buf[used++] = '\n';
+        return true;
+    }
+
+    private void flush(FileChannel channel) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(buf, 0, used);
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        used = 0;
+    }
+
+    // ASCII is copied char by char; anything else is encoded as UTF-8
+    private void putString(String value) {
+        if (value == null) {
+            return;
+        }
+        int n = value.length();
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                byte[] encoded = value.substring(i).getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(encoded, 0, buf, used, encoded.length);
+                used += encoded.length;
+                return;
+            }
+            buf[used++] = (byte) c;
+        }
+    }
+
+    private void putInt(int value) {
+        if (value < 0) {
+            buf[used++] = '-';
+            if (value == Integer.MIN_VALUE) {
+                // -2147483648 has no positive counterpart
+                putString("2147483648");
+                return;
+            }
+            value = -value;
+        }
+        int digits = 1;
+        for (int rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = used + digits - 1; i >= used; i--) {
+            buf[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        used += digits;
+    }
+
+    // True if the value can be written as one field; null is written as an empty field
+    private static boolean fits(String value) {
+        if (value == null) {
+            return true;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '\n' || c == '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
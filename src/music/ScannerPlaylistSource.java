@@ -0,0 +1,65 @@
+package music;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Scanner;
+
+/**
+ * This class reads a playlist input file line by line with a Scanner that
+ * belongs to the call, splitting each line on commas.
+ *
+ * It behaves like the original StdIn-based createPlaylist, but does not touch
+ * the static StdIn scanner, so it can be used while the console is reading.
+ */
+
+public class ScannerPlaylistSource implements PlaylistSource {
+    private static final String CHARSET_NAME = "UTF-8";
+
+    @Override
+    public Playlist read(String filename) {
+        SongNode first = null;
+        SongNode last = null;
+        int songCount = 0;
+
+        try (Scanner scanner = new Scanner(new File(filename), CHARSET_NAME)) {
+            scanner.useLocale(Locale.US);
+            while (scanner.hasNextLine()) {
+                Song newSong = parseSongFromLine(scanner.nextLine());
+                if (newSong == null) {
+                    continue;
+                }
+
+                SongNode newNode = new SongNode(newSong, null);
+                if (first == null) {
+                    first = newNode;
+                    last = newNode;
+                    last.setNext(first);
+                } else {
+                    newNode.setNext(first);
+                    last.setNext(newNode);
+                    last = newNode;
+                }
+                songCount++;
+            }
+        } catch (IOException e) {
+            System.err.println("Could not open " + filename);
+            return new Playlist();
+        }
+
+        return new Playlist(last, songCount);
+    }
+
+    // Create a song from a line, or null if the line does not hold all 5 details
+    private static Song parseSongFromLine(String line) {
+        String[] songDetails = line.split(",");
+        if (songDetails.length != 5) {
+            return null;
+        }
+        try {
+            return new Song(songDetails[0], songDetails[1], Integer.parseInt(songDetails[2]), Integer.parseInt(songDetails[3]), songDetails[4]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package music;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * This class represents a song, with a string for the song name, artist, 
  * album, and year
@@ -13,8 +16,12 @@ public class Song {
     private String          artist;
     private int             year;
     private int             popularity;
-    private String          link;
-    private final String    DIRECTORY = "songs/";
+    private String          link;      // file name only, the directory comes from linkYear and directory
+    private int             linkYear;  // the year when the link was set; setYear() does not move the file
+    private SongDirectory   directory = SongDirectory.DEFAULT;
+    private String          fullLink;  // directory/linkYear/link, built on first use
+    private Path            path;      // resolved on first use
+    private int             displayLength = -1; // length of toString(), -1 until computed
 
     /*
      * Constructor
@@ -24,7 +31,25 @@ public class Song {
         this.artist = artist;
         this.year = year;
         this.popularity = popularity;
-        this.link = DIRECTORY + year + "/" + link;
+        this.link = link;
+        this.linkYear = year;
+    }
+
+    /*
+     * Constructor for songs whose files are under another directory
+     */
+    public Song(String songName, String artist, int year, int popularity, String link, SongDirectory directory) {
+        this(songName, artist, year, popularity, link);
+        this.directory = directory;
+    }
+
+    /*
+     * Constructor for songs whose file is under linkYear instead of year, such
+     * as a song read back after setYear() was called on it
+     */
+    public Song(String songName, String artist, int year, int popularity, String link, int linkYear, SongDirectory directory) {
+        this(songName, artist, year, popularity, link, directory);
+        this.linkYear = linkYear;
     }
 
     /*
@@ -50,10 +75,51 @@ public class Song {
      */
     @Override
     public String toString() {
-        StringBuilder printSong = new StringBuilder();
-        printSong.append(songName + " (");
-        printSong.append(artist + ", y=" + year + ", p=" + popularity + ")");
-        return printSong.toString();
+        return appendTo(new StringBuilder(getDisplayLength())).toString();
+    }
+
+    /*
+     * Appends the text of toString() to text, without creating any other
+     * objects, and returns text
+     */
+    public StringBuilder appendTo(StringBuilder text) {
+        return text.append(songName).append(" (").append(artist)
+                   .append(", y=").append(year).append(", p=").append(popularity).append(')');
+    }
+
+    /*
+     * Appends the text of toString() to out
+     */
+    public void appendTo(Appendable out) throws IOException {
+        if (out instanceof StringBuilder) {
+            appendTo((StringBuilder) out);
+            return;
+        }
+        out.append(String.valueOf(songName)).append(" (").append(String.valueOf(artist))
+           .append(", y=").append(Integer.toString(year)).append(", p=").append(Integer.toString(popularity)).append(')');
+    }
+
+    /*
+     * Returns the length of toString() without building it
+     */
+    public int getDisplayLength() {
+        if (displayLength < 0) {
+            displayLength = String.valueOf(songName).length() + 2 + String.valueOf(artist).length()
+                          + 4 + digits(year) + 4 + digits(popularity) + 1;
+        }
+        return displayLength;
+    }
+
+    // Number of chars Integer.toString(value) has
+    private static int digits(int value) {
+        if (value == Integer.MIN_VALUE) {
+            return 11;
+        }
+        int count = value < 0 ? 2 : 1;
+        for (value = Math.abs(value) / 10; value > 0; value /= 10) {
+            count++;
+        }
+        return count;
     }
 
     /*
@@ -85,12 +151,13 @@ public class Song {
         if (songName == null) {
             if (other.songName != null)
                 return false;
-        } else if (!songName.equals(other.songName))
+        } else if (songName != other.songName && !songName.equals(other.songName))
             return false;
+        // artists shared through a StringDictionary match by identity
         if (artist == null) {
             if (other.artist != null)
                 return false;
-        } else if (!artist.equals(other.artist))
+        } else if (artist != other.artist && !artist.equals(other.artist))
             return false;
         if (year != other.year)
             return false;
@@ -101,20 +168,53 @@ public class Song {
 
     /* Getter and setter methods */
     public String getSongName() { return songName; }
-    public void setSongName(String s) { songName = s; }
+    public void setSongName(String s) { songName = s; displayLength = -1; }
 
     public String getArtist() { return artist; }
-    public void setArtist(String art) { artist = art; }
+    public void setArtist(String art) { artist = art; displayLength = -1; }
 
     public int getYear() { return year; }
-    public void setYear(int y) { year = y; }
+    public void setYear(int y) { year = y; displayLength = -1; }
 
     public int getPopularity() { return popularity; }
-    public void setPopularity(int p) { popularity = p; }
+    public void setPopularity(int p) { popularity = p; displayLength = -1; }
+
+    /*
+     * Returns the link as directory/year/fileName, with the year the link was set in,
+     * or null if the song has no file
+     */
+    public String getLink() {
+        if (fullLink == null && link != null) {
+            fullLink = directory.link(linkYear, link);
+        }
+        return fullLink;
+    }
+    public void setLink(String l) { link = l; linkYear = year; fullLink = null; path = null; }
+
+    /*
+     * Returns the link file name without the directory and year
+     */
+    public String getFileName() { return link; }
+
+    /*
+     * Returns the year whose directory holds the song file. It is the year of
+     * the song unless setYear() was called after the link was set.
+     */
+    public int getLinkYear() { return link == null ? year : linkYear; }
+
+    /*
+     * Returns the path of the song file, or null if the song has no file
+     */
+    public Path getPath() {
+        if (path == null && link != null) {
+            path = directory.resolve(linkYear, link);
+        }
+        return path;
+    }
 
-    public String getLink() { return link; }
-    public void setLink(String l) { link = DIRECTORY + year + "/" + l; }
+    public String getDirectory() { return directory.getRoot(); }
 
-    public String getDirectory() { return DIRECTORY; }
+    public SongDirectory getSongDirectory() { return directory; }
+    public void setSongDirectory(SongDirectory d) { directory = d; fullLink = null; path = null; }
 
 }
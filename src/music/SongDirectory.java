@@ -0,0 +1,60 @@
+package music;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is the root directory of the song files of a library. A song
+ * keeps only the file name of its link and its year; the file itself is
+ * root/year/fileName and is resolved through the song's SongDirectory the
+ * first time it is needed.
+ *
+ * The year directories are built once per year and shared by every song of
+ * that year. A directory is usually shared by a whole library, so songs read
+ * by different loader threads may build the same year at once; the first
+ * copy stored is the one kept.
+ */
+
+public class SongDirectory {
+    public static final SongDirectory DEFAULT = new SongDirectory("songs/");
+
+    private final String root; // always ends with '/'
+    private final ConcurrentHashMap<Integer, String> prefixes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, Path>   paths    = new ConcurrentHashMap<>();
+
+    /*
+     * Constructor
+     */
+    public SongDirectory(String root) {
+        this.root = root.endsWith("/") ? root : root + "/";
+    }
+
+    /*
+     * Returns the root directory, ending with '/'.
+     */
+    public String getRoot() {
+        return root;
+    }
+
+    /*
+     * Returns root + year + "/", shared by every song of that year.
+     */
+    public String prefix(int year) {
+        return prefixes.computeIfAbsent(year, y -> root + y + "/");
+    }
+
+    /*
+     * Returns the link of a song file as root + year + "/" + fileName.
+     */
+    public String link(int year, String fileName) {
+        return prefix(year).concat(fileName);
+    }
+
+    /*
+     * Returns the path of a song file.
+     */
+    public Path resolve(int year, String fileName) {
+        return paths.computeIfAbsent(year, y -> Paths.get(prefix(y))).resolve(fileName);
+    }
+}
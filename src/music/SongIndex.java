@@ -0,0 +1,106 @@
+package music;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * This class is a hash index from each Song in a playlist to the SongNode
+ * right before it in the circular list, so the song can be unlinked without
+ * walking the playlist. Songs are matched with Song.equals and Song.hashCode.
+ *
+ * A song that appears more than once in the playlist has no single
+ * predecessor; such songs are only remembered as duplicates, and lookups for
+ * them return null so the caller falls back to walking the list.
+ *
+ * PlaylistLibrary keeps the index up to date: inserts and removals are
+ * applied in O(1) with linked() and unlinked(), and operations that relink
+ * the whole list (reverse, merge, shuffle, sort) call rebuild().
+ */
+
+public class SongIndex {
+    private final HashMap<Song, SongNode> predecessors = new HashMap<>(); // songs that appear once
+    private final HashSet<Song>           duplicates   = new HashSet<>(); // songs that may appear more than once
+
+    /*
+     * Returns the node before the only node holding song, or null if the song
+     * is not in the playlist or may appear more than once.
+     */
+    public SongNode predecessorOf(Song song) {
+        return predecessors.get(song);
+    }
+
+    /*
+     * Returns true if the song may appear more than once in the playlist, in
+     * which case predecessorOf() can not be used for it.
+     */
+    public boolean isDuplicate(Song song) {
+        return duplicates.contains(song);
+    }
+
+    /*
+     * Returns the number of songs that can be looked up in O(1).
+     */
+    public int size() {
+        return predecessors.size();
+    }
+
+    /*
+     * Records that newNode was just linked in right after prev.
+     */
+    public void linked(SongNode prev, SongNode newNode) {
+        // The song after the new node now has the new node before it.
+        SongNode next = newNode.getNext();
+        if (next != newNode && predecessors.get(next.getSong()) == prev) {
+            predecessors.put(next.getSong(), newNode);
+        }
+        add(newNode.getSong(), prev);
+    }
+
+    /*
+     * Records that node was just unlinked from right after prev.
+     */
+    public void unlinked(SongNode prev, SongNode node) {
+        if (prev == node) {
+            // the playlist is now empty
+            predecessors.clear();
+            duplicates.clear();
+            return;
+        }
+        if (predecessors.get(node.getSong()) == prev) {
+            predecessors.remove(node.getSong());
+        }
+        SongNode next = prev.getNext();
+        if (predecessors.get(next.getSong()) == node) {
+            predecessors.put(next.getSong(), prev);
+        }
+    }
+
+    /*
+     * Rebuilds the index from the circular list ending at last, in O(n).
+     */
+    public void rebuild(SongNode last) {
+        predecessors.clear();
+        duplicates.clear();
+        if (last == null) {
+            return;
+        }
+        SongNode prev = last;
+        do {
+            add(prev.getNext().getSong(), prev);
+            prev = prev.getNext();
+        } while (prev != last);
+    }
+
+    // Index song as coming right after prev, unless it is already in the playlist
+    private void add(Song song, SongNode prev) {
+        if (duplicates.contains(song)) {
+            return;
+        }
+        if (predecessors.containsKey(song)) {
+            predecessors.remove(song);
+            duplicates.add(song);
+        } else {
+            predecessors.put(song, prev);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package music;
+
+/**
+ * This class represents one insertion in a batch passed to
+ * PlaylistLibrary.insertSongs(): a song and the position to insert it at.
+ */
+
+public class SongInsertion {
+    private int  position; // where to insert the song, 1 being the first song
+    private Song song;     // the song to insert
+
+    /*
+     * Constructor
+     */
+    public SongInsertion(int position, Song song) {
+        this.position = position;
+        this.song = song;
+    }
+
+    /* Getter and setter methods */
+    public int getPosition() { return position; }
+    public void setPosition(int p) { position = p; }
+
+    public Song getSong() { return song; }
+    public void setSong(Song s) { song = s; }
+}
@@ -12,12 +12,21 @@ import javax.sound.sampled.Clip;
 
 import java.io.File;
 import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.io.IOException;
 
-import java.net.URL;
+import java.nio.ShortBuffer;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioFormat;
@@ -26,7 +35,6 @@ import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
-import javax.sound.sampled.UnsupportedAudioFileException;
 
 /**
  *  <p><b>Overview.</b>
@@ -163,6 +171,10 @@ import javax.sound.sampled.UnsupportedAudioFileException;
  *  The method {@link #startRecording()} begins recording audio.
  *  The method {@link #stopRecording()} stops recording and returns the recorded
  *  samples as an array of doubles.
+ *  Samples played as shorts or floats are recorded as the 16-bit samples that
+ *  were played, two bytes each, and {@link #stopRecordingShorts()} returns them
+ *  without converting; once a double is played, the recording keeps doubles,
+ *  so {@link #stopRecording()} returns them as they were played.
  *  <p>
  *  {@code StdAudio} does not currently support recording audio that calls
  *  either {@link #play(String filename)} or
@@ -216,6 +228,7 @@ public final class StdAudio {
     private static final int BITS_PER_SAMPLE = 16;       // 16-bit audio
     private static final int MAX_16_BIT = 32768;
     private static final int SAMPLE_BUFFER_SIZE = 4096;
+    private static final int INIT_READ_CAPACITY = 4096;  // samples, when the length of a file is unknown
 
     private static final int MONO   = 1;
     private static final int STEREO = 2;
@@ -229,11 +242,28 @@ public final class StdAudio {
     private static byte[] buffer;         // our internal buffer
     private static int bufferSize = 0;    // number of samples currently in internal buffer
 
-    // queue of background Runnable objects
-    private static LinkedList<BackgroundRunnable> backgroundRunnables = new LinkedList<>();
+    // background playback: at most maxBackgroundLines files play at once, the rest wait in the pool's queue
+    private static final int MAX_BACKGROUND_LINES = 8;
+    private static int maxBackgroundLines = MAX_BACKGROUND_LINES;
+    private static ThreadPoolExecutor backgroundPool = null;
+    private static final Set<BackgroundRunnable> backgroundRunnables = ConcurrentHashMap.newKeySet();  // not finished yet
+
+    // software mixer: a feeder thread decodes every mixed stream into its own ring
+    // of samples, and the mixer thread sums the rings into one line
+    private static final AudioFormat MIX_FORMAT = new AudioFormat((float) SAMPLE_RATE, BITS_PER_SAMPLE, STEREO, SIGNED, LITTLE_ENDIAN);
+    private static final int MIX_FRAMES = 1024;        // frames mixed per block, about 23 ms
+    private static final int MIX_LINE_BLOCKS = 4;      // blocks the line buffers
+    private static final int MIX_RING_BLOCKS = 8;      // blocks decoded ahead per stream, a power of 2
+    private static final long FEED_WAIT_NANOS = 5_000_000L; // feeder nap when every ring is full
+    private static final ConcurrentLinkedQueue<MixerStream> addedStreams = new ConcurrentLinkedQueue<>();  // not picked up by the mixer yet
+    private static final ConcurrentLinkedQueue<MixerStream> feedStreams = new ConcurrentLinkedQueue<>();   // not picked up by the feeder yet
+    private static final Set<MixerStream> mixerStreams = ConcurrentHashMap.newKeySet();                    // not finished yet
+    private static Thread mixerThread = null;
+    private static volatile Thread feederThread = null;
 
     // for recording audio
-    private static QueueOfDoubles recordedSamples = null;
+    private static QueueOfShorts  recordedShorts = null;    // the 16-bit samples played
+    private static QueueOfDoubles recordedSamples = null;   // replaces recordedShorts once a double is played
     private static boolean isRecording = false;
 
     private StdAudio() {
@@ -270,39 +300,7 @@ public final class StdAudio {
 
     // get an AudioInputStream object from a file
     private static AudioInputStream getAudioInputStreamFromFile(String filename) {
-        if (filename == null) {
-            throw new IllegalArgumentException("filename is null");
-        }
-
-        try {
-            // first try to read file from local file system
-            File file = new File(filename);
-            if (file.exists()) {
-                return AudioSystem.getAudioInputStream(file);
-            }
-
-            // resource relative to .class file
-            InputStream is1 = StdAudio.class.getResourceAsStream(filename);
-            if (is1 != null) {
-                return AudioSystem.getAudioInputStream(is1);
-            }
-
-            // resource relative to classloader root
-            InputStream is2 = StdAudio.class.getClassLoader().getResourceAsStream(filename);
-            if (is2 != null) {
-                return AudioSystem.getAudioInputStream(is2);
-            }
-
-            // from URL (including jar file)
-            URL url = new URL(filename);
-            return AudioSystem.getAudioInputStream(url);
-        }
-        catch (IOException e) {
-            throw new IllegalArgumentException("could not read '" + filename + "'", e);
-        }
-        catch (UnsupportedAudioFileException e) {
-            throw new IllegalArgumentException("file of unsupported audio file format: '" + filename + "'", e);
-        }
+        return AudioFiles.open(filename);
     }
 
     /**
@@ -343,12 +341,29 @@ public final class StdAudio {
 
         // save sample if recording
         if (isRecording) {
-            recordedSamples.enqueue(sample);
+            recordDouble(sample);
         }
 
+        write(toShort(sample));
+    }
+
+    /**
+     * Writes one 16-bit sample to standard audio.
+     *
+     * @param  s the sample to play
+     */
+    public static void play(short s) {
+        // save sample if recording
+        if (isRecording) {
+            recordShort(s);
+        }
+
+        write(s);
+    }
+
+    // add one 16-bit sample to the internal buffer
+    private static void write(short s) {
         // convert to bytes
-        short s = (short) (MAX_16_BIT * sample);
-        if (sample == 1.0) s = Short.MAX_VALUE;   // special case since 32768 not a short
         buffer[bufferSize++] = (byte) s;
         buffer[bufferSize++] = (byte) (s >> 8);   // little endian
 
@@ -362,6 +377,8 @@ public final class StdAudio {
     /**
      * Writes the array of samples (between –1.0 and +1.0) to standard audio.
      * If a sample is outside the range, it will be clipped.
+     * The samples are converted a buffer at a time in one tight loop, instead
+     * of calling {@link #play(double)} for each of them.
      *
      * @param  samples the array of samples to play
      * @throws IllegalArgumentException if any sample is {@code Double.NaN}
@@ -369,8 +386,157 @@ public final class StdAudio {
      */
     public static void play(double[] samples) {
         if (samples == null) throw new IllegalArgumentException("argument to play() is null");
-        for (int i = 0; i < samples.length; i++) {
-            play(samples[i]);
+        for (int from = 0; from < samples.length; ) {
+            // convert as many samples as fit in the internal buffer in one loop
+            int count = Math.min(samples.length - from, (buffer.length - bufferSize) / BYTES_PER_SAMPLE);
+            byte[] buf = buffer;
+            int start = bufferSize;
+            int at = start;
+            for (int i = from; i < from + count; i++) {
+                double sample = samples[i];
+                if (Double.isNaN(sample)) {
+                    record(samples, from, i);   // the samples before it are played, as with play(double)
+                    endBlock(at);
+                    throw new IllegalArgumentException("sample is NaN");
+                }
+                // clip: the cast saturates and the result is clamped to 16 bits
+                int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (int) (MAX_16_BIT * sample)));
+                buf[at++] = (byte) s;
+                buf[at++] = (byte) (s >> 8);   // little endian
+            }
+            record(samples, from, from + count);
+            endBlock(at);
+            from += count;
+        }
+    }
+
+    /**
+     * Writes the array of 16-bit samples to standard audio.
+     *
+     * @param  samples the array of samples to play
+     * @throws IllegalArgumentException if {@code samples} is {@code null}
+     */
+    public static void play(short[] samples) {
+        if (samples == null) throw new IllegalArgumentException("argument to play() is null");
+        for (int from = 0; from < samples.length; ) {
+            int count = Math.min(samples.length - from, (buffer.length - bufferSize) / BYTES_PER_SAMPLE);
+            byte[] buf = buffer;
+            int start = bufferSize;
+            int at = start;
+            for (int i = from; i < from + count; i++) {
+                short s = samples[i];
+                buf[at++] = (byte) s;
+                buf[at++] = (byte) (s >> 8);   // little endian
+            }
+            recordBuffer(start, at);
+            endBlock(at);
+            from += count;
+        }
+    }
+
+    /**
+     * Writes the remaining 16-bit samples of a buffer, such as
+     * {@link WavFile#getSamples()} of a mono file, to standard audio.
+     *
+     * @param  samples the samples to play
+     * @throws IllegalArgumentException if {@code samples} is {@code null}
+     */
+    public static void play(ShortBuffer samples) {
+        if (samples == null) throw new IllegalArgumentException("argument to play() is null");
+        while (samples.hasRemaining()) {
+            int count = Math.min(samples.remaining(), (buffer.length - bufferSize) / BYTES_PER_SAMPLE);
+            byte[] buf = buffer;
+            int start = bufferSize;
+            int at = start;
+            for (int i = 0; i < count; i++) {
+                short s = samples.get();
+                buf[at++] = (byte) s;
+                buf[at++] = (byte) (s >> 8);   // little endian
+            }
+            recordBuffer(start, at);
+            endBlock(at);
+        }
+    }
+
+    /**
+     * Writes the array of samples (between –1.0 and +1.0) to standard audio.
+     * If a sample is outside the range, it will be clipped.
+     *
+     * @param  samples the array of samples to play
+     * @throws IllegalArgumentException if any sample is {@code Float.NaN}
+     * @throws IllegalArgumentException if {@code samples} is {@code null}
+     */
+    public static void play(float[] samples) {
+        if (samples == null) throw new IllegalArgumentException("argument to play() is null");
+        for (int from = 0; from < samples.length; ) {
+            int count = Math.min(samples.length - from, (buffer.length - bufferSize) / BYTES_PER_SAMPLE);
+            byte[] buf = buffer;
+            int start = bufferSize;
+            int at = start;
+            for (int i = from; i < from + count; i++) {
+                float sample = samples[i];
+                if (Float.isNaN(sample)) {
+                    recordBuffer(start, at);
+                    endBlock(at);
+                    throw new IllegalArgumentException("sample is NaN");
+                }
+                int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (int) (MAX_16_BIT * sample)));
+                buf[at++] = (byte) s;
+                buf[at++] = (byte) (s >> 8);   // little endian
+            }
+            recordBuffer(start, at);
+            endBlock(at);
+            from += count;
+        }
+    }
+
+    // save samples[from..to) if recording, clipped like play(double) does
+    private static void record(double[] samples, int from, int to) {
+        if (isRecording) {
+            for (int i = from; i < to; i++) {
+                recordDouble(Math.max(-1.0, Math.min(+1.0, samples[i])));
+            }
+        }
+    }
+
+    // save the 16-bit samples in buffer[start..end) if recording
+    private static void recordBuffer(int start, int end) {
+        if (isRecording) {
+            for (int i = start; i < end; i += 2) {
+                recordShort((short) (((buffer[i+1] & 0xFF) << 8) | (buffer[i] & 0xFF)));
+            }
+        }
+    }
+
+    // save one 16-bit sample, 2 bytes each until a double has been recorded
+    private static void recordShort(short s) {
+        if (recordedSamples == null) {
+            recordedShorts.enqueue(s);
+        }
+        else {
+            recordedSamples.enqueue(s / ((double) MAX_16_BIT));
+        }
+    }
+
+    // save one sample of the double API exactly as it was played: the first one
+    // moves the recording from 16-bit samples to doubles
+    private static void recordDouble(double sample) {
+        if (recordedSamples == null) {
+            recordedSamples = new QueueOfDoubles(recordedShorts.capacity());
+            for (short s : recordedShorts.toArray()) {
+                recordedSamples.enqueue(s / ((double) MAX_16_BIT));
+            }
+            recordedShorts = null;
+        }
+        recordedSamples.enqueue(sample);
+    }
+
+    // the internal buffer now holds samples up to end: send it to the sound card if it is full
+    private static void endBlock(int end) {
+        bufferSize = end;
+        if (bufferSize >= buffer.length) {
+            line.write(buffer, 0, buffer.length);
+            bufferSize = 0;
         }
     }
 
@@ -415,16 +581,119 @@ public final class StdAudio {
      * The sound format must use 16-bit audio data with a sampling rate of 44,100.
      * The sound format can be either monoaural or stereo, and the bytes can
      * be stored in either little endian or big endian order.
+     * 16-bit PCM WAV files are memory-mapped and converted directly, see
+     * {@link #read(WavFile)}.
      *
      * @param  filename the name of the audio file
      * @return the array of samples
      */
     public static double[] read(String filename) {
-        // 4K buffer (must be a multiple of 2 for mono or 4 for stereo)
-        int READ_BUFFER_SIZE = 4096;
+        return toDoubles(readShorts(filename));
+    }
+
+    /**
+     * Reads audio samples from a file, like {@link #read(String)}, and returns
+     * them as 16-bit samples, which take a quarter of the memory of doubles.
+     *
+     * @param  filename the name of the audio file
+     * @return the array of samples
+     */
+    public static short[] readShorts(String filename) {
+        if (filename != null && filename.toLowerCase().endsWith(".wav") && new File(filename).isFile()) {
+            try {
+                return readShorts(WavFile.open(filename));
+            }
+            catch (IOException e) {
+                // not a plain 16-bit PCM WAV file, so let AudioSystem decode it
+            }
+        }
 
         // create AudioInputStream from file
         AudioInputStream fromAudioInputStream = getAudioInputStreamFromFile(filename);
+        try {
+            return readShorts(fromAudioInputStream, new QueueOfShorts(INIT_READ_CAPACITY), filename);
+        }
+        finally {
+            try {
+                fromAudioInputStream.close();
+            }
+            catch (IOException ioe) {
+                // already read
+            }
+        }
+    }
+
+    /**
+     * Reads audio samples from a file, like {@link #read(String)}, and returns
+     * them as a float array with values between –1.0 and +1.0.
+     *
+     * @param  filename the name of the audio file
+     * @return the array of samples
+     */
+    public static float[] readFloats(String filename) {
+        return toFloats(readShorts(filename));
+    }
+
+    /**
+     * Reads the samples of a memory-mapped WAV file and returns them as a
+     * double array with values between –1.0 and +1.0, in the same format as
+     * {@link #read(String)}: 44,100 Hz and mono.
+     *
+     * @param  wav the WAV file
+     * @return the array of samples
+     * @throws IllegalArgumentException if {@code wav} is {@code null}
+     */
+    public static double[] read(WavFile wav) {
+        return toDoubles(readShorts(wav));
+    }
+
+    /**
+     * Reads the samples of a memory-mapped WAV file as 16-bit samples at
+     * 44,100 Hz, mono.
+     * At 44,100 Hz the samples are converted straight from the mapped file into
+     * an array of the final size. Stereo is mixed down the way AudioSystem
+     * does it, so the result is the same as decoding the file. Other sample
+     * rates are still resampled by AudioSystem.
+     *
+     * @param  wav the WAV file
+     * @return the array of samples
+     * @throws IllegalArgumentException if {@code wav} is {@code null}
+     */
+    public static short[] readShorts(WavFile wav) {
+        if (wav == null) throw new IllegalArgumentException("argument to read() is null");
+        if (wav.getSampleRate() != SAMPLE_RATE) {
+            // the resampler may return a few more samples than the exact ratio
+            int expected = (int) ((long) wav.getFrames() * SAMPLE_RATE / wav.getSampleRate()) + INIT_READ_CAPACITY;
+            return readShorts(wav.stream(), new QueueOfShorts(expected), wav.getFilename());
+        }
+
+        ShortBuffer in = wav.getSamples();
+        int channels = wav.getChannels();
+        short[] samples = new short[wav.getFrames()];
+        if (channels == MONO) {
+            in.get(samples);
+        }
+        else {
+            // average the channels as floats and round back to 16 bits, like AudioSystem
+            float volume = 1f / channels;
+            for (int i = 0, j = 0; i < samples.length; i++) {
+                float sum = 0;
+                for (int c = 0; c < channels; c++) {
+                    short s = in.get(j++);
+                    sum += s > 0 ? s / 32767f : s / 32768f;
+                }
+                sum *= volume;
+                samples[i] = (short) (sum > 0 ? sum * 32767 : sum * 32768);
+            }
+        }
+        return samples;
+    }
+
+    // convert a stream to 44,100 Hz, 16-bit audio, mono and collect its samples in queue
+    private static short[] readShorts(AudioInputStream fromAudioInputStream, QueueOfShorts queue, String filename) {
+        // 4K buffer (must be a multiple of 2 for mono or 4 for stereo)
+        int READ_BUFFER_SIZE = 4096;
+
         AudioFormat fromAudioFormat = fromAudioInputStream.getFormat();
 
         // normalize AudioInputStream to 44,100 Hz, 16-bit audio, mono, signed PCM, little endian
@@ -433,33 +702,18 @@ public final class StdAudio {
         if (!AudioSystem.isConversionSupported(toAudioFormat, fromAudioFormat)) {
             throw new IllegalArgumentException("system cannot convert from " + fromAudioFormat + " to " + toAudioFormat);
         }
-        AudioInputStream toAudioInputStream = AudioSystem.getAudioInputStream(toAudioFormat, fromAudioInputStream);
 
-        // extract the audio data and convert to a double[] with each sample between -1 and +1
-        try {
-            QueueOfDoubles queue = new QueueOfDoubles();
+        // extract the audio data as 16-bit samples
+        try (AudioInputStream toAudioInputStream = AudioSystem.getAudioInputStream(toAudioFormat, fromAudioInputStream)) {
             byte[] bytes = new byte[READ_BUFFER_SIZE];
             int count;
             while ((count = toAudioInputStream.read(bytes, 0, READ_BUFFER_SIZE)) != -1) {
 
                 // little endian, monoaural
                 for (int i = 0; i < count/2; i++) {
-                    double sample = ((short) (((bytes[2*i+1] & 0xFF) << 8) | (bytes[2*i] & 0xFF))) / ((double) MAX_16_BIT);
-                    queue.enqueue(sample);
-                }
-
-                // little endian, stereo (perhaps, for a future version that supports stereo)
-                /*
-                for (int i = 0; i < count/4; i++) {
-                    double left  = ((short) (((bytes[4*i + 1] & 0xFF) << 8) | (bytes[4*i + 0] & 0xFF))) / ((double) MAX_16_BIT);
-                    double right = ((short) (((bytes[4*i + 3] & 0xFF) << 8) | (bytes[4*i + 2] & 0xFF))) / ((double) MAX_16_BIT);
-                    double sample = (left + right) / 2.0;
-                    queue.enqueue(sample);
+                    queue.enqueue((short) (((bytes[2*i+1] & 0xFF) << 8) | (bytes[2*i] & 0xFF)));
                 }
-                */
             }
-            toAudioInputStream.close();
-            fromAudioInputStream.close();
             return queue.toArray();
         }
         catch (IOException ioe) {
@@ -467,6 +721,42 @@ public final class StdAudio {
         }
     }
 
+    /**
+     * Converts 16-bit samples to doubles between –1.0 and +1.0.
+     *
+     * @param  samples the 16-bit samples
+     * @return the array of samples
+     */
+    public static double[] toDoubles(short[] samples) {
+        double[] result = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            result[i] = samples[i] / ((double) MAX_16_BIT);
+        }
+        return result;
+    }
+
+    /**
+     * Converts 16-bit samples to floats between –1.0 and +1.0.
+     *
+     * @param  samples the 16-bit samples
+     * @return the array of samples
+     */
+    public static float[] toFloats(short[] samples) {
+        float[] result = new float[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            result[i] = samples[i] / ((float) MAX_16_BIT);
+        }
+        return result;
+    }
+
+    // convert a sample between -1.0 and +1.0 to 16 bits, clipping it
+    private static short toShort(double sample) {
+        if (sample < -1.0) sample = -1.0;
+        if (sample > +1.0) sample = +1.0;
+        if (sample == 1.0) return Short.MAX_VALUE;   // special case since 32768 not a short
+        return (short) (MAX_16_BIT * sample);
+    }
+
     /**
      * Saves the double array as an audio file (using WAV, AU, or AIFF format).
      * The file extension type must be either {@code .wav}, {@code .au},
@@ -483,28 +773,75 @@ public final class StdAudio {
      *         {@code .wav}, {@code .au}, or {@code .aiff}.
      */
     public static void save(String filename, double[] samples) {
-        if (filename == null) {
-            throw new IllegalArgumentException("filename is null");
+        if (samples == null) {
+            throw new IllegalArgumentException("samples[] is null");
         }
+        byte[] data = new byte[2 * samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            int temp = (short) (samples[i] * MAX_16_BIT);
+            if (samples[i] == 1.0) temp = Short.MAX_VALUE;   // special case since 32768 not a short
+            data[2*i + 0] = (byte) temp;
+            data[2*i + 1] = (byte) (temp >> 8);   // little endian
+        }
+        save(filename, data, samples.length);
+    }
+
+    /**
+     * Saves 16-bit samples as an audio file, like {@link #save(String, double[])}.
+     *
+     * @param  filename the name of the audio file
+     * @param  samples the array of samples
+     * @throws IllegalArgumentException if unable to save {@code filename}
+     * @throws IllegalArgumentException if {@code samples} is {@code null}
+     */
+    public static void save(String filename, short[] samples) {
         if (samples == null) {
             throw new IllegalArgumentException("samples[] is null");
         }
+        byte[] data = new byte[2 * samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            data[2*i + 0] = (byte) samples[i];
+            data[2*i + 1] = (byte) (samples[i] >> 8);   // little endian
+        }
+        save(filename, data, samples.length);
+    }
 
-        // assumes 16-bit samples with sample rate = 44,100 Hz
-        // use 16-bit audio, mono, signed PCM, little Endian
-        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, MONO, SIGNED, LITTLE_ENDIAN);
+    /**
+     * Saves float samples (between –1.0 and +1.0) as an audio file, like
+     * {@link #save(String, double[])}.
+     *
+     * @param  filename the name of the audio file
+     * @param  samples the array of samples
+     * @throws IllegalArgumentException if unable to save {@code filename}
+     * @throws IllegalArgumentException if {@code samples} is {@code null}
+     */
+    public static void save(String filename, float[] samples) {
+        if (samples == null) {
+            throw new IllegalArgumentException("samples[] is null");
+        }
         byte[] data = new byte[2 * samples.length];
         for (int i = 0; i < samples.length; i++) {
             int temp = (short) (samples[i] * MAX_16_BIT);
-            if (samples[i] == 1.0) temp = Short.MAX_VALUE;   // special case since 32768 not a short
+            if (samples[i] == 1.0f) temp = Short.MAX_VALUE;   // special case since 32768 not a short
             data[2*i + 0] = (byte) temp;
             data[2*i + 1] = (byte) (temp >> 8);   // little endian
         }
+        save(filename, data, samples.length);
+    }
+
+    // save 16-bit little endian mono audio data in the format given by the file extension
+    private static void save(String filename, byte[] data, int length) {
+        if (filename == null) {
+            throw new IllegalArgumentException("filename is null");
+        }
 
+        // assumes 16-bit samples with sample rate = 44,100 Hz
+        // use 16-bit audio, mono, signed PCM, little Endian
+        AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, MONO, SIGNED, LITTLE_ENDIAN);
 
         // now save the file
         try (ByteArrayInputStream bais = new ByteArrayInputStream(data);
-            AudioInputStream ais = new AudioInputStream(bais, format, samples.length)) {
+            AudioInputStream ais = new AudioInputStream(bais, format, length)) {
 
             if (filename.endsWith(".wav") || filename.endsWith(".WAV")) {
                 if (!AudioSystem.isFileTypeSupported(AudioFileFormat.Type.WAVE, ais)) {
@@ -534,41 +871,132 @@ public final class StdAudio {
     }
 
     /**
-     * Stops the playing of all audio files in background threads.
+     * A handle on an audio file playing in the background.
+     */
+    public interface Playback {
+
+        /**
+         * Stops the playback, or keeps it from starting if it is still
+         * waiting for a free line.
+         */
+        void stop();
+
+        /**
+         * Waits until the playback has finished or was stopped.
+         *
+         * @throws InterruptedException if the waiting thread is interrupted
+         */
+        void await() throws InterruptedException;
+
+        /**
+         * Returns true once the playback has finished or was stopped.
+         *
+         * @return true if the playback is over
+         */
+        boolean isDone();
+    }
+
+    /**
+     * Stops the playing of all audio files in background threads, including
+     * the ones still waiting for a free line.
      */
     public static synchronized void stopInBackground() {
         for (BackgroundRunnable runnable : backgroundRunnables) {
             runnable.stop();
         }
-        backgroundRunnables = new LinkedList<>();
+        for (MixerStream stream : mixerStreams) {
+            stream.stop();
+        }
     }
 
     /**
-     * Plays an audio file (in WAVE, AU, AIFF, or MIDI format) in its own
-     * background thread. Multiple audio files can be played simultaneously.
+     * Plays an audio file (in WAVE, AU, AIFF, or MIDI format) in a background
+     * thread. Multiple audio files can be played simultaneously: the files
+     * share a pool of at most {@link #setMaxBackgroundLines(int)} threads, each
+     * with its own line, and files beyond that wait until a line is free.
      *
      * @param filename the name of the audio file
+     * @return a handle to stop or wait for the playback
      * @throws IllegalArgumentException if unable to play {@code filename}
      * @throws IllegalArgumentException if {@code filename} is {@code null}
      */
-    public static synchronized void playInBackground(final String filename) {
+    public static synchronized Playback playInBackground(final String filename) {
+        if (filename == null) throw new IllegalArgumentException("filename is null");
         BackgroundRunnable runnable = new BackgroundRunnable(filename);
-        new Thread(runnable).start();
         backgroundRunnables.add(runnable);
+        backgroundPool().execute(runnable);
+        return runnable;
     }
 
-    private static class BackgroundRunnable implements Runnable {
+    /**
+     * Sets how many audio files can play in the background at the same time.
+     * The default is 8.
+     *
+     * @param lines the number of simultaneous background lines
+     * @throws IllegalArgumentException if {@code lines} is less than 1
+     */
+    public static synchronized void setMaxBackgroundLines(int lines) {
+        if (lines < 1) throw new IllegalArgumentException("lines must be at least 1");
+        maxBackgroundLines = lines;
+        if (backgroundPool != null) {
+            if (lines > backgroundPool.getMaximumPoolSize()) {
+                backgroundPool.setMaximumPoolSize(lines);
+                backgroundPool.setCorePoolSize(lines);
+            }
+            else {
+                backgroundPool.setCorePoolSize(lines);
+                backgroundPool.setMaximumPoolSize(lines);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of audio files playing or waiting to play in the
+     * background, including the ones played through the mixer.
+     *
+     * @return the number of unfinished background playbacks
+     */
+    public static int backgroundCount() {
+        return backgroundRunnables.size() + mixerStreams.size();
+    }
+
+    // the pool is created on first use; idle threads end after a second, so
+    // a program exits once its background audio has finished
+    private static ThreadPoolExecutor backgroundPool() {
+        if (backgroundPool == null) {
+            AtomicInteger threads = new AtomicInteger();
+            backgroundPool = new ThreadPoolExecutor(maxBackgroundLines, maxBackgroundLines, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), runnable -> new Thread(runnable, "StdAudio-background-" + threads.incrementAndGet()));
+            backgroundPool.allowCoreThreadTimeOut(true);
+        }
+        return backgroundPool;
+    }
+
+    private static class BackgroundRunnable implements Runnable, Playback {
         private volatile boolean exit = false;
         private final String filename;
+        private final CountDownLatch done = new CountDownLatch(1);
 
         public BackgroundRunnable(String filename) {
             this.filename = filename;
         }
 
+        public void run() {
+            try {
+                if (!exit) {
+                    play();
+                }
+            }
+            finally {
+                backgroundRunnables.remove(this);
+                done.countDown();
+            }
+        }
+
         // https://www3.ntu.edu.sg/home/ehchua/programming/java/J8c_PlayingSound.html
         // play a wav or aif file
         // javax.sound.sampled.Clip fails for long clips (on some systems)
-        public void run() {
+        private void play() {
             AudioInputStream ais = getAudioInputStreamFromFile(filename);
 
             SourceDataLine line = null;
@@ -591,15 +1019,362 @@ public final class StdAudio {
             }
             finally {
                 if (line != null) {
-                    line.drain();
+                    if (exit) {
+                        line.stop();
+                        line.flush();   // stopped: drop what is left instead of playing it out
+                    }
+                    else {
+                        line.drain();
+                    }
                     line.close();
                 }
+                try {
+                    ais.close();
+                }
+                catch (IOException e) {
+                    // nothing left to read anyway
+                }
+            }
+        }
+
+        public void stop() {
+            exit = true;
+        }
+
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
+    }
+
+
+    /**
+     * A handle on an audio file playing through the mixer, whose volume can
+     * be changed while it plays.
+     */
+    public interface MixedPlayback extends Playback {
+
+        /**
+         * Sets the gain the samples are multiplied by: 1.0 plays the file as
+         * it is, 0.5 at half the amplitude and 0.0 mutes it.
+         *
+         * @param gain the new gain
+         * @throws IllegalArgumentException if {@code gain} is negative or NaN
+         */
+        void setGain(float gain);
+
+        /**
+         * Returns the gain of the playback.
+         *
+         * @return the gain
+         */
+        float getGain();
+    }
+
+    /**
+     * Plays an audio file (in WAVE, AU, AIFF, or MIDI format) in the
+     * background through the software mixer, at its own volume.
+     *
+     * @param filename the name of the audio file
+     * @return a handle to stop or wait for the playback, or change its gain
+     * @throws IllegalArgumentException if unable to play {@code filename}
+     * @throws IllegalArgumentException if {@code filename} is {@code null}
+     */
+    public static MixedPlayback mixInBackground(String filename) {
+        return mixInBackground(filename, 1.0f);
+    }
+
+    /**
+     * Plays an audio file (in WAVE, AU, AIFF, or MIDI format) in the
+     * background through the software mixer, with the given gain.
+     * Unlike {@link #playInBackground(String)}, which opens a line per file,
+     * every mixed file is converted to 44,100 Hz, 16-bit stereo and summed
+     * into a single line by one mixer thread, so dozens of files can overlap
+     * without running out of lines. The sum is clipped to 16 bits.
+     * The files are read and converted ahead of time on a separate feeder
+     * thread; a file that can not be read fast enough is silent for a moment
+     * instead of holding up the others.
+     *
+     * @param filename the name of the audio file
+     * @param gain the gain the samples are multiplied by (1.0 for none)
+     * @return a handle to stop or wait for the playback, or change its gain
+     * @throws IllegalArgumentException if unable to play {@code filename}
+     * @throws IllegalArgumentException if {@code filename} is {@code null}
+     * @throws IllegalArgumentException if {@code gain} is negative or NaN
+     */
+    public static synchronized MixedPlayback mixInBackground(String filename, float gain) {
+        if (filename == null) throw new IllegalArgumentException("filename is null");
+        AudioInputStream ais = getAudioInputStreamFromFile(filename);
+        AudioFormat fromAudioFormat = ais.getFormat();
+        if (!fromAudioFormat.matches(MIX_FORMAT)) {
+            if (!AudioSystem.isConversionSupported(MIX_FORMAT, fromAudioFormat)) {
+                throw new IllegalArgumentException("system cannot convert from " + fromAudioFormat + " to " + MIX_FORMAT);
+            }
+            ais = AudioSystem.getAudioInputStream(MIX_FORMAT, ais);
+        }
+
+        MixerStream stream = new MixerStream(ais);
+        stream.setGain(gain);
+        mixerStreams.add(stream);
+        feedStreams.add(stream);
+        addedStreams.add(stream);
+        if (feederThread == null) {
+            feederThread = new Thread(StdAudio::feed, "StdAudio-mixer-feeder");
+            feederThread.setDaemon(true);
+            feederThread.start();
+        }
+        else {
+            LockSupport.unpark(feederThread);
+        }
+        if (mixerThread == null) {
+            mixerThread = new Thread(StdAudio::mix, "StdAudio-mixer");
+            mixerThread.setPriority(Thread.MAX_PRIORITY);
+            mixerThread.start();
+        }
+        return stream;
+    }
+
+    // feeder thread: read and convert every stream into its ring until no stream is left
+    private static void feed() {
+        byte[] block = new byte[MIX_FRAMES * MIX_FORMAT.getFrameSize()];
+        ArrayList<MixerStream> streams = new ArrayList<>();  // the streams being read
+
+        while (true) {
+            for (MixerStream added = feedStreams.poll(); added != null; added = feedStreams.poll()) {
+                streams.add(added);
+            }
+
+            boolean progress = false;
+            for (int k = streams.size() - 1; k >= 0; k--) {
+                MixerStream stream = streams.get(k);
+                if (stream.exit || stream.ended || stream.isDone()) {
+                    streams.remove(k);
+                    stream.close();
+                }
+                else if (stream.fill(block)) {
+                    progress = true;
+                }
+            }
+
+            if (streams.isEmpty()) {
+                synchronized (StdAudio.class) {
+                    if (feedStreams.isEmpty()) {
+                        feederThread = null;
+                        return;
+                    }
+                }
+            }
+            else if (!progress) {
+                LockSupport.parkNanos(FEED_WAIT_NANOS);  // every ring is full; the mixer wakes us
+            }
+        }
+    }
+
+    // mixer thread: sum a block of every stream's ring into one line until no
+    // stream is left. It never reads a file, so a slow one can not stall the line.
+    private static void mix() {
+        int blockBytes = MIX_FRAMES * MIX_FORMAT.getFrameSize();
+        int blockSamples = MIX_FRAMES * STEREO;
+        float[] sum = new float[blockSamples];               // the mixed samples
+        byte[] out = new byte[blockBytes];                   // the mixed block
+        ArrayList<MixerStream> streams = new ArrayList<>();  // the streams being mixed
+
+        SourceDataLine line = null;
+        try {
+            line = (SourceDataLine) AudioSystem.getLine(new DataLine.Info(SourceDataLine.class, MIX_FORMAT));
+            line.open(MIX_FORMAT, MIX_LINE_BLOCKS * blockBytes);
+            line.start();
+
+            while (true) {
+                for (MixerStream added = addedStreams.poll(); added != null; added = addedStreams.poll()) {
+                    streams.add(added);
+                }
+                if (streams.isEmpty()) {
+                    line.drain();
+                    synchronized (StdAudio.class) {
+                        if (addedStreams.isEmpty()) {
+                            mixerThread = null;
+                            return;
+                        }
+                    }
+                    continue;
+                }
+
+                Arrays.fill(sum, 0f);
+                int mixed = 0;   // samples in the longest block of this round
+                for (int k = streams.size() - 1; k >= 0; k--) {
+                    MixerStream stream = streams.get(k);
+                    if (stream.exit) {
+                        streams.remove(k);
+                        stream.finish();
+                        continue;
+                    }
+                    boolean ended = stream.ended;   // read before the ring, so no sample is missed
+                    if (!stream.started) {
+                        // wait for a full block before the stream starts, so it starts cleanly
+                        if (!ended && stream.available() < blockSamples) {
+                            continue;
+                        }
+                        stream.started = true;
+                    }
+                    int count = stream.take(sum, blockSamples);
+                    mixed = Math.max(mixed, count);
+                    if (ended && stream.available() == 0) {
+                        streams.remove(k);
+                        stream.finish();
+                    }
+                }
+                Thread feeder = feederThread;
+                if (feeder != null) {
+                    LockSupport.unpark(feeder);   // there is room in the rings again
+                }
+
+                // a stream that fell behind, or has not started yet, is silent for
+                // this block; only the very last block is cut short
+                if (!streams.isEmpty()) {
+                    mixed = blockSamples;
+                }
+                for (int i = 0, j = 0; i < mixed; i++) {
+                    int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, (int) sum[i]));
+                    out[j++] = (byte) s;
+                    out[j++] = (byte) (s >> 8);   // little endian
+                }
+                line.write(out, 0, 2 * mixed);
+            }
+        }
+        catch (LineUnavailableException | IllegalArgumentException e) {
+            e.printStackTrace();
+        }
+        finally {
+            if (line != null) {
+                line.close();
+            }
+            // without a line, end every stream so no one waits for it forever
+            synchronized (StdAudio.class) {
+                for (MixerStream stream : streams) {
+                    stream.finish();
+                }
+                if (mixerThread == Thread.currentThread()) {
+                    for (MixerStream added = addedStreams.poll(); added != null; added = addedStreams.poll()) {
+                        added.finish();
+                    }
+                    mixerThread = null;
+                }
+            }
+        }
+    }
+
+    // A mixed file. The feeder thread writes its samples into ring and the
+    // mixer thread takes them out; each side only moves its own position, so
+    // neither waits for the other.
+    private static class MixerStream implements MixedPlayback {
+        private volatile boolean exit = false;
+        private volatile float gain = 1.0f;
+        private final AudioInputStream ais;   // in the mixer's format, read by the feeder only
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private final short[] ring = new short[MIX_RING_BLOCKS * MIX_FRAMES * STEREO];
+        private volatile int written = 0;     // samples put in the ring so far, by the feeder
+        private volatile int taken = 0;       // samples taken out of the ring so far, by the mixer
+        private volatile boolean ended = false;   // the feeder has written the last sample
+        private boolean started = false;      // the mixer has begun taking samples
+
+        public MixerStream(AudioInputStream ais) {
+            this.ais = ais;
+        }
+
+        // feeder: read the next block into the ring if it has room for it;
+        // returns false if it did not
+        private boolean fill(byte[] block) {
+            int at = written;
+            if (ring.length - (at - taken) < block.length / 2) {
+                return false;
+            }
+            int n = 0;
+            try {
+                int count;
+                while (n < block.length && (count = ais.read(block, n, block.length - n)) != -1) {
+                    n += count;
+                }
+            }
+            catch (IOException e) {
+                e.printStackTrace();
+                n = 0;
+            }
+            n -= n % MIX_FORMAT.getFrameSize();
+
+            int mask = ring.length - 1;
+            for (int j = 0; j < n; j += 2) {
+                ring[(at + j / 2) & mask] = (short) (((block[j+1] & 0xFF) << 8) | (block[j] & 0xFF));
+            }
+            written = at + n / 2;
+            if (n < block.length) {
+                ended = true;
+            }
+            return true;
+        }
+
+        // mixer: the number of samples in the ring
+        private int available() {
+            return written - taken;
+        }
+
+        // mixer: add up to max samples from the ring, times the gain, to sum;
+        // returns the number of samples taken
+        private int take(float[] sum, int max) {
+            int at = taken;
+            int count = Math.min(written - at, max);
+            float gain = this.gain;
+            int mask = ring.length - 1;
+            for (int i = 0; i < count; i++) {
+                sum[i] += gain * ring[(at + i) & mask];
             }
+            taken = at + count;
+            return count;
+        }
+
+        // feeder: close the file once the stream is read, stopped or dropped
+        private void close() {
+            try {
+                ais.close();
+            }
+            catch (IOException e) {
+                // nothing left to read anyway
+            }
+        }
+
+        // called once the mixer has dropped the stream
+        private void finish() {
+            if (done.getCount() == 0) {
+                return;
+            }
+            mixerStreams.remove(this);
+            done.countDown();
+        }
+
+        public void setGain(float gain) {
+            if (!(gain >= 0)) throw new IllegalArgumentException("gain must be non-negative");
+            this.gain = gain;
+        }
+
+        public float getGain() {
+            return gain;
         }
 
         public void stop() {
             exit = true;
         }
+
+        public void await() throws InterruptedException {
+            done.await();
+        }
+
+        public boolean isDone() {
+            return done.getCount() == 0;
+        }
     }
 
 
@@ -647,10 +1422,24 @@ public final class StdAudio {
 
     /**
      * Turns on audio recording.
+     * The recording buffer starts with room for one second of audio.
      */
     public static void startRecording() {
+        startRecording(SAMPLE_RATE);
+    }
+
+    /**
+     * Turns on audio recording, with room for {@code capacity} samples before
+     * the recording buffer has to grow.
+     *
+     * @param capacity the number of samples expected
+     * @throws IllegalArgumentException if {@code capacity} is negative
+     */
+    public static void startRecording(int capacity) {
+        if (capacity < 0) throw new IllegalArgumentException("capacity must be non-negative");
         if (!isRecording) {
-            recordedSamples = new QueueOfDoubles();
+            recordedShorts = new QueueOfShorts(capacity);
+            recordedSamples = null;
             isRecording = true;
          }
          else {
@@ -660,62 +1449,150 @@ public final class StdAudio {
 
     /**
      * Turns off audio recording and returns the recorded samples.
+     * Samples played as doubles come back as they were played; the others
+     * are the 16-bit samples that were played, converted to doubles.
      * @return the array of recorded samples
      */
     public static double[] stopRecording() {
-        if (isRecording) {
-            double[] results = recordedSamples.toArray();
-            isRecording = false;
-            recordedSamples = null;
-            return results;
-         }
-         else {
-             throw new IllegalStateException("stopRecording() must be called after calling startRecording()");
-         }
+        endRecording();
+        double[] results;
+        if (recordedSamples != null) {
+            results = recordedSamples.toArray();
+        }
+        else {
+            short[] samples = recordedShorts.toArray();
+            results = new double[samples.length];
+            for (int i = 0; i < samples.length; i++) {
+                results[i] = samples[i] / ((double) MAX_16_BIT);
+            }
+        }
+        recordedShorts = null;
+        recordedSamples = null;
+        return results;
+    }
+
+    /**
+     * Turns off audio recording and returns the recorded samples as floats.
+     * @return the array of recorded samples
+     */
+    public static float[] stopRecordingFloats() {
+        endRecording();
+        float[] results;
+        if (recordedSamples != null) {
+            double[] samples = recordedSamples.toArray();
+            results = new float[samples.length];
+            for (int i = 0; i < samples.length; i++) {
+                results[i] = (float) samples[i];
+            }
+        }
+        else {
+            short[] samples = recordedShorts.toArray();
+            results = new float[samples.length];
+            for (int i = 0; i < samples.length; i++) {
+                results[i] = samples[i] / (float) MAX_16_BIT;
+            }
+        }
+        recordedShorts = null;
+        recordedSamples = null;
+        return results;
+    }
+
+    /**
+     * Turns off audio recording and returns the recorded samples as the
+     * 16-bit values that were sent to the sound card.
+     * @return the array of recorded samples
+     */
+    public static short[] stopRecordingShorts() {
+        endRecording();
+        short[] results;
+        if (recordedSamples != null) {
+            double[] samples = recordedSamples.toArray();
+            results = new short[samples.length];
+            for (int i = 0; i < samples.length; i++) {
+                results[i] = toShort(samples[i]);
+            }
+        }
+        else {
+            results = recordedShorts.toArray();
+        }
+        recordedShorts = null;
+        recordedSamples = null;
+        return results;
+    }
+
+    // turn recording off, or throw if it was not on
+    private static void endRecording() {
+        if (!isRecording) {
+            throw new IllegalStateException("stopRecording() must be called after calling startRecording()");
+        }
+        isRecording = false;
     }
 
 
    /***************************************************************************
-    * Helper class for reading and recording audio.
+    * Helper class for recording audio.
     ***************************************************************************/
     private static class QueueOfDoubles {
-        private static final int INIT_CAPACITY = 16;
         private double[] a;   // array of doubles
         private int n;        // number of items in queue
 
-        // create an empty queue
-        public QueueOfDoubles() {
-            a = new double[INIT_CAPACITY];
+        // create an empty queue with room for capacity items
+        public QueueOfDoubles(int capacity) {
+            a = new double[Math.max(capacity, 16)];
             n = 0;
         }
 
-        // resize the underlying array holding the items
-        private void resize(int capacity) {
-            assert capacity >= n;
-            double[] temp = new double[capacity];
-            for (int i = 0; i < n; i++)
-                temp[i] = a[i];
-            a = temp;
-        }
-
         // enqueue item onto the queue
         public void enqueue(double item) {
-            if (n == a.length) resize(2*a.length);    // double length of array if necessary
-            a[n++] = item;                            // add item
+            if (n == a.length) a = Arrays.copyOf(a, 2*a.length);    // double length of array if necessary
+            a[n++] = item;                                           // add item
         }
 
-
         // number of items in queue
         public int size() {
             return n;
         }
 
-        // return the items as an array of length n
+        // return the items as an array of length n; a full queue hands over its array
         public double[] toArray() {
-            double[] result = new double[n];
-            for (int i = 0; i < n; i++)
-                result[i] = a[i];
-            return result;
+            return n == a.length ? a : Arrays.copyOf(a, n);
+        }
+
+    }
+
+
+   /***************************************************************************
+    * Helper class for reading and recording audio.
+    ***************************************************************************/
+    private static class QueueOfShorts {
+        private short[] a;    // array of samples
+        private int n;        // number of items in queue
+
+        // create an empty queue with room for capacity items
+        public QueueOfShorts(int capacity) {
+            a = new short[Math.max(capacity, 16)];
+            n = 0;
+        }
+
+        // enqueue item onto the queue
+        public void enqueue(short item) {
+            if (n == a.length) a = Arrays.copyOf(a, 2*a.length);    // double length of array if necessary
+            a[n++] = item;                                           // add item
+        }
+
+        // number of items in queue
+        public int size() {
+            return n;
+        }
+
+        // number of items that fit before the array grows
+        public int capacity() {
+            return a.length;
+        }
+
+        // return the items as an array of length n; a full queue hands over its array
+        public short[] toArray() {
+            return n == a.length ? a : Arrays.copyOf(a, n);
         }
 
     }
@@ -11,6 +11,7 @@ package music;
  ******************************************************************************/
 
 import java.lang.System;
+import java.io.BufferedWriter;
 import java.io.OutputStreamWriter;
 
 import java.io.PrintWriter;
@@ -53,6 +54,9 @@ import java.util.Locale;
  *       and floating-point literals.
  *  <li> {@code StdOut} <em>flushes</em> standard output after each call to
  *       {@code print()} so that text will appear immediately in the terminal.
+ *       Call {@code setBuffered(true)} to collect output in a large buffer
+ *       instead; it is then only written when the buffer is full or when
+ *       {@code print()} or {@code setBuffered(false)} is called.
  *  </ul>
  *  <p>
  *  <b>Reference.</b>
@@ -72,21 +76,52 @@ public final class StdOut {
     // assume language = English, country = US for consistency with StdIn
     private static final Locale LOCALE = Locale.US;
 
+    // size of the output buffer in buffered mode
+    private static final int BUFFER_SIZE = 1 << 16;
+
     // send output here
     private static PrintWriter out;
 
+    // true if output is only flushed when the buffer is full or on request
+    private static boolean buffered;
+
     // this is called before invoking any methods
     static {
+        setBuffered(false);
+    }
+
+    // don't instantiate
+    private StdOut() { }
+
+   /**
+     * Turns buffered mode on or off. In buffered mode, output is collected in
+     * a large buffer and not flushed after every call, which is much faster
+     * for long output. Turning it off flushes what is buffered.
+     *
+     * @param on true for buffered mode, false to flush after every print
+     */
+    public static void setBuffered(boolean on) {
+        if (out != null) {
+            out.flush();
+        }
         try {
-            out = new PrintWriter(new OutputStreamWriter(System.out, CHARSET_NAME), true);
+            OutputStreamWriter writer = new OutputStreamWriter(System.out, CHARSET_NAME);
+            out = on ? new PrintWriter(new BufferedWriter(writer, BUFFER_SIZE), false) : new PrintWriter(writer, true);
+            buffered = on;
         }
         catch (UnsupportedEncodingException e) {
             System.out.println(e);
         }
     }
 
-    // don't instantiate
-    private StdOut() { }
+   /**
+     * Returns true if output is in buffered mode.
+     *
+     * @return true if output is only flushed when the buffer is full or on request
+     */
+    public static boolean isBuffered() {
+        return buffered;
+    }
 
    /**
      * Terminates the current line by printing the line-separator string.
@@ -192,7 +227,7 @@ public final class StdOut {
      */
     public static void print(Object x) {
         out.print(x);
-        out.flush();
+        flush();
     }
 
    /**
@@ -202,7 +237,7 @@ public final class StdOut {
      */
     public static void print(boolean x) {
         out.print(x);
-        out.flush();
+        flush();
     }
 
    /**
@@ -212,7 +247,7 @@ public final class StdOut {
      */
     public static void print(char x) {
         out.print(x);
-        out.flush();
+        flush();
     }
 
    /**
@@ -222,7 +257,7 @@ public final class StdOut {
      */
     public static void print(double x) {
         out.print(x);
-        out.flush();
+        flush();
     }
 
    /**
@@ -232,7 +267,7 @@ public final class StdOut {
      */
     public static void print(float x) {
         out.print(x);
-        out.flush();
+        flush();
     }
 
    /**
@@ -242,7 +277,7 @@ public final class StdOut {
      */
     public static void print(int x) {
         out.print(x);
-        out.flush();
+        flush();
     }
 
    /**
@@ -252,7 +287,7 @@ public final class StdOut {
      */
     public static void print(long x) {
         out.print(x);
-        out.flush();
+        flush();
     }
 
    /**
@@ -262,7 +297,7 @@ public final class StdOut {
      */
     public static void print(short x) {
         out.print(x);
-        out.flush();
+        flush();
     }
 
    /**
@@ -272,7 +307,7 @@ public final class StdOut {
      */
     public static void print(byte x) {
         out.print(x);
-        out.flush();
+        flush();
     }
     
 
@@ -286,7 +321,7 @@ public final class StdOut {
      */
     public static void printf(String format, Object... args) {
         out.printf(LOCALE, format, args);
-        out.flush();
+        flush();
     }
 
    /**
@@ -299,10 +334,17 @@ public final class StdOut {
      */
     public static void printf(Locale locale, String format, Object... args) {
         out.printf(locale, format, args);
-        out.flush();
+        flush();
     }
 
     
+    // flush after a print, unless output is buffered
+    private static void flush() {
+        if (!buffered) {
+            out.flush();
+        }
+    }
+
     /**
      * Unit tests some of the methods in {@code StdOut}.
      *
@@ -0,0 +1,59 @@
+package music;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class deduplicates the strings a library reads over and over, such as
+ * artist names, so every copy of the same text shares one String object.
+ *
+ * The strings are kept in a ConcurrentHashMap, so the threads of
+ * addAllPlaylists can intern into one dictionary while they load. Because
+ * equal strings are the same object, Song.equals can compare artists by
+ * identity first.
+ */
+
+public class StringDictionary {
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+    private final LongAdder lookups = new LongAdder();
+
+    /*
+     * Returns the shared copy of value (null stays null).
+     */
+    public String intern(String value) {
+        if (value == null) {
+            return null;
+        }
+        lookups.increment();
+        String shared = strings.putIfAbsent(value, value);
+        return shared == null ? value : shared;
+    }
+
+    /*
+     * Returns the number of strings looked up so far.
+     */
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    /*
+     * Returns the number of distinct strings kept.
+     */
+    public int getDistinct() {
+        return strings.size();
+    }
+
+    /*
+     * Returns how many lookups each kept string served on average;
+     * 1.0 means nothing was deduplicated.
+     */
+    public double getDedupRatio() {
+        int distinct = getDistinct();
+        return distinct == 0 ? 1.0 : (double) getLookups() / distinct;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d lookups, %d distinct strings, dedup ratio %.1f", getLookups(), getDistinct(), getDedupRatio());
+    }
+}
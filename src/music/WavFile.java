@@ -0,0 +1,196 @@
+package music;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+/**
+ * This class reads a 16-bit PCM WAV file by memory-mapping it, so its
+ * samples can be used in place instead of being decoded through
+ * AudioSystem and copied into a growing array.
+ *
+ * open() parses the RIFF header once: it reads the "fmt " chunk, skips any
+ * other chunk before the audio (such as LIST), and finds the "data" chunk.
+ * Files that were written as a stream have 0xFFFFFFFF as their RIFF and data
+ * sizes; for those, and for any data size past the end of the file, the
+ * audio runs to the end of the file.
+ *
+ * The samples are interleaved (left, right, left, ... for stereo) and can be
+ * read as a ShortBuffer with getSamples(), or one at a time as floats
+ * between -1.0 and +1.0 with getSample().
+ *
+ * open() maps the whole file at once and throws an IOException for files
+ * over 2GB; StdAudio then reads them through AudioSystem instead.
+ */
+
+public final class WavFile {
+    private static final int RIFF = 0x46464952; // "RIFF", read little endian
+    private static final int WAVE = 0x45564157; // "WAVE"
+    private static final int FMT  = 0x20746D66; // "fmt "
+    private static final int DATA = 0x61746164; // "data"
+    private static final int PCM = 1;
+    private static final int EXTENSIBLE = 0xFFFE;
+    private static final long UNKNOWN_SIZE = 0xFFFFFFFFL; // size of a chunk written as a stream
+    private static final float MAX_16_BIT = 32768f;
+
+    private final String      filename;
+    private final ByteBuffer  data;      // the data chunk, read only
+    private final ShortBuffer samples;   // interleaved view of data
+    private final int sampleRate;
+    private final int channels;
+    private final int frames;
+
+    private WavFile(String filename, ByteBuffer data, int sampleRate, int channels) {
+        this.filename = filename;
+        this.data = data;
+        this.samples = data.asShortBuffer();
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.frames = samples.capacity() / channels;
+    }
+
+    /*
+     * Maps a WAV file and parses its header.
+     *
+     * @throws IOException if the file can not be read or is not a 16-bit PCM WAV file
+     */
+    public static WavFile open(String filename) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(filename + " is larger than 2GB.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (buffer.capacity() < 12 || buffer.getInt(0) != RIFF || buffer.getInt(8) != WAVE) {
+            throw new IOException(filename + " is not a WAV file.");
+        }
+
+        int sampleRate = 0;
+        int channels = 0;
+        int at = 12;
+        while (at <= buffer.capacity() - 8) {
+            int id = buffer.getInt(at);
+            long size = buffer.getInt(at + 4) & 0xFFFFFFFFL;
+            int body = at + 8;
+
+            if (id == FMT) {
+                if (size < 16 || body + 16 > buffer.capacity()) {
+                    throw new IOException(filename + " has a broken fmt chunk.");
+                }
+                int tag = buffer.getShort(body) & 0xFFFF;
+                if (tag == EXTENSIBLE) {
+                    if (size < 26 || body + 26 > buffer.capacity()) {
+                        throw new IOException(filename + " has a broken fmt chunk.");
+                    }
+                    tag = buffer.getShort(body + 24) & 0xFFFF; // first two bytes of the sub format GUID
+                }
+                channels = buffer.getShort(body + 2) & 0xFFFF;
+                sampleRate = buffer.getInt(body + 4);
+                int bits = buffer.getShort(body + 14) & 0xFFFF;
+                if (tag != PCM || bits != 16 || channels == 0) {
+                    throw new IOException(filename + " is not 16-bit PCM audio.");
+                }
+            }
+            else if (id == DATA) {
+                if (channels == 0) {
+                    throw new IOException(filename + " has no fmt chunk before its data.");
+                }
+                long end = size == UNKNOWN_SIZE ? buffer.capacity() : Math.min(body + size, buffer.capacity());
+                int frameBytes = 2 * channels;
+                int length = (int) ((end - body) / frameBytes * frameBytes); // whole frames only
+                ByteBuffer data = buffer.duplicate().position(body).limit(body + length).slice();
+                return new WavFile(filename, data.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN), sampleRate, channels);
+            }
+
+            // chunks are padded to an even number of bytes
+            long next = body + size + (size & 1);
+            if (size == UNKNOWN_SIZE || next > buffer.capacity()) {
+                break;
+            }
+            at = (int) next;
+        }
+        throw new IOException(filename + " has no data chunk.");
+    }
+
+    public String getFilename() { return filename; }
+    public int getSampleRate() { return sampleRate; }
+    public int getChannels() { return channels; }
+    public int getFrames() { return frames; }
+
+    /*
+     * Returns the format of the samples: 16-bit signed little endian PCM.
+     */
+    public AudioFormat getFormat() {
+        return new AudioFormat(sampleRate, 16, channels, true, false);
+    }
+
+    /*
+     * Returns the interleaved samples as a new read only view of the file, with
+     * its own position.
+     */
+    public ShortBuffer getSamples() {
+        return samples.duplicate();
+    }
+
+    /*
+     * Returns one sample of one channel as a float between -1.0 and +1.0.
+     */
+    public float getSample(int frame, int channel) {
+        if (frame < 0 || frame >= frames || channel < 0 || channel >= channels) {
+            throw new IndexOutOfBoundsException("Invalid sample " + frame + ", channel " + channel + ".");
+        }
+        return samples.get(frame * channels + channel) / MAX_16_BIT;
+    }
+
+    /*
+     * Returns a new stream over the samples, for code that expects an
+     * AudioInputStream. The bytes are read straight from the mapped file.
+     */
+    public AudioInputStream stream() {
+        return new AudioInputStream(new BufferStream(data.duplicate()), getFormat(), frames);
+    }
+
+    // Serves the bytes of a ByteBuffer
+    private static class BufferStream extends InputStream {
+        private final ByteBuffer bytes;
+
+        BufferStream(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return bytes.hasRemaining() ? bytes.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!bytes.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, bytes.remaining());
+            bytes.get(b, offset, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return bytes.remaining();
+        }
+    }
+}